@@ -0,0 +1,45 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.util.ReflectUtil;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 基准测试使用的Redis连接,不启动Spring容器
+ * 连接本地或测试环境的Redis: -Dredis.host=127.0.0.1 -Dredis.port=6379 -Dredis.password= -Dredis.database=15
+ * 基准测试会写入 bench: 开头的key和秒杀相关的key,默认使用单独的15号库,不要连接生产环境
+ */
+final class BenchmarkRedis {
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    final StringRedisTemplate template;
+
+    BenchmarkRedis() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        config.setDatabase(Integer.getInteger("redis.database", 15));
+        String password = System.getProperty("redis.password", "");
+        if (!password.isEmpty()) {
+            config.setPassword(password);
+        }
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        template = new StringRedisTemplate(connectionFactory);
+    }
+
+    void close() {
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 给没有Spring容器注入的组件设置 @Resource / @Value 字段
+     */
+    static <T> T inject(T bean, Object... fieldAndValues) {
+        for (int i = 0; i < fieldAndValues.length; i += 2) {
+            ReflectUtil.setFieldValue(bean, (String) fieldAndValues[i], fieldAndValues[i + 1]);
+        }
+        return bean;
+    }
+}
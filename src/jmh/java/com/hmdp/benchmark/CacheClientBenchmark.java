@@ -0,0 +1,58 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheClient 缓存命中时的开销: 一次Redis get + hutool反序列化
+ * 逻辑过期多一次 RedisData -> JSONObject -> Shop 的转换
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class CacheClientBenchmark {
+
+    private static final String PASS_THROUGH_KEY = "bench:cache:shop:";
+    private static final String LOGICAL_EXPIRE_KEY = "bench:cache:hot-shop:";
+    private static final String LOCK_KEY = "bench:lock:shop:";
+    private static final long SHOP_ID = 1L;
+
+    private BenchmarkRedis redis;
+
+    private CacheClient cacheClient;
+
+    @Setup
+    public void setup() {
+        redis = new BenchmarkRedis();
+        cacheClient = new CacheClient(redis.template);
+        Shop shop = Fixtures.shop();
+        cacheClient.set(PASS_THROUGH_KEY + SHOP_ID, shop, 10L, TimeUnit.MINUTES);
+        cacheClient.setWithLogicalExpire(LOGICAL_EXPIRE_KEY + SHOP_ID, shop, 10L, TimeUnit.MINUTES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        redis.template.delete(PASS_THROUGH_KEY + SHOP_ID);
+        redis.template.delete(LOGICAL_EXPIRE_KEY + SHOP_ID);
+        redis.close();
+    }
+
+    @Benchmark
+    public Shop queryWithPassThrough() {
+        return cacheClient.queryWithPassThrough(PASS_THROUGH_KEY, SHOP_ID, Shop.class,
+                id -> Fixtures.shop(), 10L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop queryWithLogicalExpire() {
+        return cacheClient.queryWithLogicalExpire(LOGICAL_EXPIRE_KEY, SHOP_ID, LOCK_KEY, Shop.class,
+                id -> Fixtures.shop(), 10L, TimeUnit.MINUTES);
+    }
+}
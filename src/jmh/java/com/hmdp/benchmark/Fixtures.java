@@ -0,0 +1,54 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基准测试使用的数据,字段取值接近 tb_shop 中的真实数据
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    static RedisData redisData() {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.of(2030, 1, 1, 0, 0));
+        return redisData;
+    }
+
+    /**
+     * 登录用户在Redis中的hash,与 UserServiceImpl 写入的字段一致
+     */
+    static Map<Object, Object> userMap() {
+        Map<Object, Object> userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_slxaxy2au9f3tanffaxr");
+        userMap.put("icon", "/imgs/icons/kkjtbcr.jpg");
+        return userMap;
+    }
+}
@@ -0,0 +1,56 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker.nextId 三种模式的对比
+ * incr: 每次一次Redis往返; segment: 号段模式,内存中分配; snowflake: 本地雪花算法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class IdWorkerBenchmark {
+
+    @Param({"incr", "segment", "snowflake"})
+    private String mode;
+
+    private BenchmarkRedis redis;
+
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    private RedisIdWorker redisIdWorker;
+
+    @Setup
+    public void setup() {
+        redis = new BenchmarkRedis();
+        snowflakeIdWorker = BenchmarkRedis.inject(new SnowflakeIdWorker(),
+                "stringRedisTemplate", redis.template, "leaseTtlMs", 30000L, "maxBackwardMs", 5L);
+        redisIdWorker = BenchmarkRedis.inject(new RedisIdWorker(),
+                "stringRedisTemplate", redis.template,
+                "segmentEnabled", "segment".equals(mode), "segmentStep", 1000, "prefetchRatio", 0.8,
+                "snowflakePrefixes", "snowflake".equals(mode)
+                        ? Collections.singleton("bench") : Collections.emptySet(),
+                "snowflakeIdWorker", snowflakeIdWorker);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ReflectUtil.invoke(snowflakeIdWorker, "release");
+        redis.close();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("bench");
+    }
+}
@@ -0,0 +1,86 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存中 Shop 和 RedisData 的序列化与反序列化: hutool JSONUtil 与 Jackson 对比
+ * 各自使用自己的格式,反序列化 RedisData 都包含把 data 转换为 Shop 的过程,与 CacheClient 的用法一致
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private Shop shop;
+    private RedisData redisData;
+    private String hutoolShopJson;
+    private String hutoolRedisDataJson;
+    private String jacksonShopJson;
+    private String jacksonRedisDataJson;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        shop = Fixtures.shop();
+        redisData = Fixtures.redisData();
+        hutoolShopJson = JSONUtil.toJsonStr(shop);
+        hutoolRedisDataJson = JSONUtil.toJsonStr(redisData);
+        jacksonShopJson = objectMapper.writeValueAsString(shop);
+        jacksonRedisDataJson = objectMapper.writeValueAsString(redisData);
+    }
+
+    @Benchmark
+    public String hutoolWriteShop() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public Shop hutoolReadShop() {
+        return JSONUtil.toBean(hutoolShopJson, Shop.class);
+    }
+
+    @Benchmark
+    public String hutoolWriteRedisData() {
+        return JSONUtil.toJsonStr(redisData);
+    }
+
+    @Benchmark
+    public Shop hutoolReadRedisData() {
+        RedisData data = JSONUtil.toBean(hutoolRedisDataJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public String jacksonWriteShop() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(shop);
+    }
+
+    @Benchmark
+    public Shop jacksonReadShop() throws JsonProcessingException {
+        return objectMapper.readValue(jacksonShopJson, Shop.class);
+    }
+
+    @Benchmark
+    public String jacksonWriteRedisData() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(redisData);
+    }
+
+    @Benchmark
+    public Shop jacksonReadRedisData() throws JsonProcessingException {
+        RedisData data = objectMapper.readValue(jacksonRedisDataJson, RedisData.class);
+        return objectMapper.convertValue(data.getData(), Shop.class);
+    }
+}
@@ -0,0 +1,96 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.SeckillDedupe;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比三种已购用户存储方式的判断耗时,结束时输出内存占用
+ * 模拟一个库存为USERS的秒杀券全部售出后,已购用户再次下单的判断
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeckillDedupeBenchmark {
+
+    private static final int USERS = 200_000;
+    // 用户id从这里开始,模拟真实的自增id
+    private static final long FIRST_USER_ID = 1_000_000L;
+    private static final int PIPELINE_SIZE = 1000;
+
+    private static final String KEY = "bench:dedupe";
+
+    private static final long BLOOM_BITS = SeckillDedupe.bloomBits(USERS * 2L, 0.001);
+    private static final int BLOOM_HASHES = SeckillDedupe.bloomHashes(USERS * 2L, BLOOM_BITS);
+
+    @Param({SeckillDedupe.SET, SeckillDedupe.BITMAP, SeckillDedupe.BLOOM})
+    public String mode;
+
+    private BenchmarkRedis redis;
+
+    @Setup
+    public void setup() {
+        redis = new BenchmarkRedis();
+        redis.template.delete(KEY);
+        for (int from = 0; from < USERS; from += PIPELINE_SIZE) {
+            int start = from;
+            redis.template.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int i = start; i < Math.min(start + PIPELINE_SIZE, USERS); i++) {
+                    add(conn, String.valueOf(FIRST_USER_ID + i));
+                }
+                return null;
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Long memory = redis.template.execute((RedisCallback<Long>) conn ->
+                (Long) conn.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), KEY.getBytes(StandardCharsets.UTF_8)));
+        System.out.printf("%n%-6s memory = %,d bytes (%.1f bytes/user)%n", mode, memory, (double) memory / USERS);
+        redis.template.delete(KEY);
+        redis.close();
+    }
+
+    @Benchmark
+    public Object check() {
+        String userId = String.valueOf(FIRST_USER_ID + ThreadLocalRandom.current().nextInt(USERS));
+        switch (mode) {
+            case SeckillDedupe.BITMAP:
+                return redis.template.opsForValue().getBit(KEY, Long.parseLong(userId));
+            case SeckillDedupe.BLOOM:
+                return redis.template.executePipelined((RedisCallback<Object>) conn -> {
+                    for (long offset : SeckillDedupe.bloomOffsets(userId, BLOOM_BITS, BLOOM_HASHES)) {
+                        conn.getBit(KEY.getBytes(StandardCharsets.UTF_8), offset);
+                    }
+                    return null;
+                });
+            default:
+                return redis.template.opsForSet().isMember(KEY, userId);
+        }
+    }
+
+    private void add(StringRedisConnection conn, String userId) {
+        switch (mode) {
+            case SeckillDedupe.BITMAP:
+                conn.setBit(KEY, Long.parseLong(userId), true);
+                break;
+            case SeckillDedupe.BLOOM:
+                for (long offset : SeckillDedupe.bloomOffsets(userId, BLOOM_BITS, BLOOM_HASHES)) {
+                    conn.setBit(KEY, offset, true);
+                }
+                break;
+            default:
+                conn.sAdd(KEY, userId);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * seckill.lua 的一次往返,参数与 VoucherOrderServiceImpl.seckillVoucher 一致
+ * grant: 每次都是新用户,扣减库存、写入消息队列; reject: 同一用户重复下单,只做判断
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class SeckillScriptBenchmark {
+
+    private static final long VOUCHER_ID = 999_999L;
+    private static final long REJECTED_USER_ID = 1L;
+
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+    }
+
+    private final RedisIdWorker redisIdWorker = new RedisIdWorker();
+
+    private final AtomicLong userIds = new AtomicLong(REJECTED_USER_ID);
+
+    private BenchmarkRedis redis;
+
+    @Setup
+    public void setup() {
+        redis = new BenchmarkRedis();
+        cleanUp();
+        redis.template.opsForValue().set(SECKILL_STOCK_KEY + VOUCHER_ID, String.valueOf(Integer.MAX_VALUE));
+        // 预先让一个用户下单,reject 使用
+        seckill(REJECTED_USER_ID);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cleanUp();
+        redis.close();
+    }
+
+    private void cleanUp() {
+        redis.template.delete(SECKILL_STOCK_KEY + VOUCHER_ID);
+        redis.template.delete(SECKILL_ORDER_KEY + VOUCHER_ID);
+        redis.template.delete(SECKILL_ORDER_STREAM);
+    }
+
+    @Benchmark
+    public Object grant() {
+        return seckill(userIds.incrementAndGet());
+    }
+
+    @Benchmark
+    public Object reject() {
+        return seckill(REJECTED_USER_ID);
+    }
+
+    private Object seckill(long userId) {
+        LocalDateTime now = LocalDateTime.now();
+        List<?> result = redis.template.execute(SECKILL_SCRIPT, Collections.singletonList(SECKILL_STOCK_KEY + VOUCHER_ID),
+                String.valueOf(VOUCHER_ID), String.valueOf(userId),
+                String.valueOf(redisIdWorker.timestampBits(now)), redisIdWorker.counterKey("bench", now),
+                String.valueOf(System.currentTimeMillis()), "60", "", "1", "");
+        return result.get(0);
+    }
+}
@@ -0,0 +1,42 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RefreshTokenInterceptor 每个请求都要把Redis中的用户hash转换为 UserDTO
+ * BeanUtil.fillBeanWithMap 与手写赋值对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserMapBenchmark {
+
+    private Map<Object, Object> userMap;
+
+    @Setup
+    public void setup() {
+        userMap = Fixtures.userMap();
+    }
+
+    @Benchmark
+    public UserDTO fillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO manual() {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(Long.valueOf((String) userMap.get("id")));
+        userDTO.setNickName((String) userMap.get("nickName"));
+        userDTO.setIcon((String) userMap.get("icon"));
+        return userDTO;
+    }
+}
@@ -1,13 +1,20 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillPathInterceptor;
+import com.hmdp.utils.SeckillPathSigner;
+import com.hmdp.utils.SeckillRateLimitInterceptor;
+import com.hmdp.utils.SeckillRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
@@ -15,6 +22,16 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillRateLimiter seckillRateLimiter;
+
+    @Resource
+    private SeckillPathSigner seckillPathSigner;
+
+    // 可以访问运维接口(死信队列等)的管理员用户id,逗号分隔
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // Token刷新拦截器先执行,登陆拦截器后执行,通过order设置优先级,或者根据先后添加顺序先后执行(order默认为0)
@@ -28,7 +45,18 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop/**",
                         "/shop-type/**",
                         "/upload/**",
-                        "/voucher/**"
+                        "/voucher/**",
+                        "/actuator/health"
                 ).order(1);
+        // 运维接口只允许管理员访问,登陆校验之后执行. 监控指标等actuator接口同样只对管理员开放,健康检查除外
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/admin/**", "/voucher-order/dlq/**", "/actuator/**")
+                .excludePathPatterns("/actuator/health").order(2);
+        // 秒杀隐藏路径校验,登陆校验之后、限流之前执行,无效路径的请求不消耗令牌
+        registry.addInterceptor(new SeckillPathInterceptor(seckillPathSigner))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
+        // 秒杀接口限流,登陆校验之后执行,未登录的请求不消耗令牌
+        registry.addInterceptor(new SeckillRateLimitInterceptor(seckillRateLimiter))
+                .addPathPatterns("/voucher-order/seckill/**").order(3);
     }
 }
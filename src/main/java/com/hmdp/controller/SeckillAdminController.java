@@ -0,0 +1,60 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherService;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ *  秒杀运维接口,只允许管理员访问(AdminInterceptor)
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 设置秒杀券的限流速率
+     * @param voucherId 优惠券id
+     * @param localRate 每个实例每秒放行的请求数,0代表不限流
+     * @param globalRate 整个集群每秒放行的请求数,0代表不限流
+     * @return 无
+     */
+    @PutMapping("{id}/limit")
+    public Result setSeckillRateLimit(@PathVariable("id") Long voucherId,
+                                      @RequestParam("localRate") Integer localRate,
+                                      @RequestParam(value = "globalRate", defaultValue = "0") Integer globalRate) {
+        if (localRate < 0 || globalRate < 0) {
+            return Result.fail("限流速率不能为负数");
+        }
+        voucherService.setSeckillRateLimit(voucherId, localRate, globalRate);
+        return Result.ok();
+    }
+
+    /**
+     * 开启或关闭秒杀券的排队模式
+     * @param voucherId 优惠券id
+     * @param rate 每秒放行的排队用户数,0代表关闭排队
+     * @return 无
+     */
+    @PutMapping("{id}/waiting-room")
+    public Result setSeckillWaitingRoom(@PathVariable("id") Long voucherId, @RequestParam("rate") Integer rate) {
+        voucherService.setSeckillWaitingRoom(voucherId, rate);
+        return Result.ok();
+    }
+
+    /**
+     * 查询最近一次Redis与数据库的对账结果
+     * @return 每张秒杀券的库存、已购用户数、订单数和差值
+     */
+    @GetMapping("reconcile")
+    public Result queryReconcileReports() {
+        return voucherService.queryReconcileReports();
+    }
+}
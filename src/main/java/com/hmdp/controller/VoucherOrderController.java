@@ -3,10 +3,11 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.utils.SeckillResultNotifier;
+import com.hmdp.utils.UserHolder;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.Resource;
 
@@ -25,13 +26,80 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillResultNotifier seckillResultNotifier;
+
     /**
      * 抢购秒杀活动优惠券
+     * 开启隐藏路径后必须使用 seckill/{id}/{path},路径由 SeckillPathInterceptor 校验
      * @param voucherId 优惠券id
+     * @param token 排队放行后得到的购买令牌,开启排队的秒杀券必须携带
      * @return http response
      */
-    @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+    @PostMapping({"seckill/{id}", "seckill/{id}/{path}"})
+    public Result seckillVoucher(@PathVariable("id") Long voucherId,
+                                 @RequestParam(value = "token", required = false) String token) {
+        return voucherOrderService.seckillVoucher(voucherId, token);
+    }
+
+    /**
+     * 获取秒杀路径,秒杀开始后才会签发
+     * @param voucherId 优惠券id
+     * @return 秒杀路径
+     */
+    @GetMapping("path/{id}")
+    public Result getSeckillPath(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.getSeckillPath(voucherId);
+    }
+
+    /**
+     * 进入秒杀排队队列,重复调用可以查询排队位置
+     * @param voucherId 优惠券id
+     * @return 已放行时返回 {token},排队中返回 {position}
+     */
+    @PostMapping("queue/{id}")
+    public Result enterWaitingRoom(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.enterWaitingRoom(voucherId);
+    }
+
+    /**
+     * 查询秒杀订单的处理状态
+     * @param orderId 订单id
+     * @return QUEUED(排队中) / PERSISTED(下单成功) / FAILED(下单失败)
+     */
+    @GetMapping("status/{orderId}")
+    public Result queryOrderStatus(@PathVariable("orderId") Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
+
+    /**
+     * 订阅秒杀订单的处理结果(SSE)
+     * 订单落库或被拒绝后推送一次 result 事件,数据格式与查询状态接口相同
+     * @param orderId 订单id
+     * @return SSE连接
+     */
+    @GetMapping(value = "status/{orderId}/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeOrderStatus(@PathVariable("orderId") Long orderId) {
+        return seckillResultNotifier.subscribe(orderId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 查询死信队列中处理失败的订单消息
+     * @param count 最多返回的条数
+     * @return 死信消息列表
+     */
+    @GetMapping("dlq")
+    public Result queryDeadLetters(@RequestParam(value = "count", defaultValue = "20") Integer count) {
+        return voucherOrderService.queryDeadLetters(count);
+    }
+
+    /**
+     * 重放死信消息
+     * @param recordId 死信消息id
+     * @return 重新投递后的消息id
+     */
+    @PostMapping("dlq/{recordId}/replay")
+    public Result replayDeadLetter(@PathVariable("recordId") String recordId) {
+        return voucherOrderService.replayDeadLetter(recordId);
     }
 }
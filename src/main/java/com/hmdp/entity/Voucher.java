@@ -90,6 +90,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 已购用户的存储方式 set/bitmap/bloom
+     */
+    @TableField(exist = false)
+    private String dedupeMode;
+
     /**
      * 创建时间
      */
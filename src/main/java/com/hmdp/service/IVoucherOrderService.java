@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -17,9 +19,31 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     /**
      * 抢购秒杀优化券
      * @param voucherId
+     * @param token 排队放行时发放的购买令牌,没有开启排队时为null
      * @return
      */
-    Result seckillVoucher(Long voucherId);
+    Result seckillVoucher(Long voucherId, String token);
+
+    /**
+     * 获取秒杀路径,秒杀开始后才会签发,短时间内有效
+     * @param voucherId 优惠券id
+     * @return 秒杀路径
+     */
+    Result getSeckillPath(Long voucherId);
+
+    /**
+     * 进入秒杀排队队列,重复调用可以查询排队位置
+     * @param voucherId 优惠券id
+     * @return 已放行时返回购买令牌,排队中返回排队位置
+     */
+    Result enterWaitingRoom(Long voucherId);
+
+    /**
+     * 查询秒杀订单的处理状态,只读Redis,不访问数据库
+     * @param orderId 订单id
+     * @return QUEUED(排队中) / PERSISTED(下单成功) / FAILED(下单失败)
+     */
+    Result queryOrderStatus(Long orderId);
 
     /**
      * 创建秒杀优惠券订单
@@ -29,5 +53,55 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      */
     public Result createVoucherOrder(Long voucherId);
 
-    void createVoucherOrderWithOrderObject(VoucherOrder order);
+    /**
+     * 根据消息队列中的订单创建秒杀优惠券订单
+     * @param order 订单
+     * @return true 代表订单已落库
+     */
+    boolean createVoucherOrderWithOrderObject(VoucherOrder order);
+
+    /**
+     * 批量创建秒杀优惠券订单
+     * 按voucherId分组,每个优惠券只扣减一次库存,整批订单一条多行INSERT写入
+     * @param orders 同一批次的订单
+     * @return 已落库的订单
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> orders);
+
+    /**
+     * 基于唯一索引幂等地创建秒杀优惠券订单
+     * 不加分布式锁、不先查询,INSERT IGNORE 成功后再扣减库存
+     * @param order 订单
+     * @return true 代表订单已落库
+     */
+    boolean createVoucherOrderIdempotent(VoucherOrder order);
+
+    /**
+     * 基于唯一索引幂等地批量创建秒杀优惠券订单
+     * 每个优惠券一条 INSERT IGNORE,按实际插入的行数扣减一次库存
+     * @param orders 同一批次的订单
+     * @return 已落库的订单
+     */
+    List<VoucherOrder> createVoucherOrdersIdempotent(List<VoucherOrder> orders);
+
+    /**
+     * 取消超时未支付的订单,并归还数据库库存
+     * @param orderIds 已到支付截止时间的订单id
+     * @return 实际被取消的订单(仍处于未支付状态的订单)
+     */
+    List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds);
+
+    /**
+     * 查询死信队列中的订单消息
+     * @param count 最多返回的条数
+     * @return 死信消息列表
+     */
+    Result queryDeadLetters(Integer count);
+
+    /**
+     * 将死信消息重新投递到订单消息队列,并从死信队列中删除
+     * @param recordId 死信消息id
+     * @return 重新投递后的消息id
+     */
+    Result replayDeadLetter(String recordId);
 }
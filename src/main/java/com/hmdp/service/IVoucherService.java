@@ -17,4 +17,25 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 设置秒杀券的限流速率
+     * @param voucherId 优惠券id
+     * @param localRate 每个实例每秒放行的请求数,0代表不限流
+     * @param globalRate 整个集群每秒放行的请求数,0代表不限流
+     */
+    void setSeckillRateLimit(Long voucherId, Integer localRate, Integer globalRate);
+
+    /**
+     * 开启或关闭秒杀券的排队模式,开启后只有排队放行的用户才能抢购
+     * @param voucherId 优惠券id
+     * @param rate 每秒放行的排队用户数,0代表关闭排队
+     */
+    void setSeckillWaitingRoom(Long voucherId, Integer rate);
+
+    /**
+     * 查询最近一次Redis与数据库的对账结果
+     * @return 每张秒杀券的对账结果
+     */
+    Result queryReconcileReports();
 }
@@ -0,0 +1,187 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.utils.SeckillOrderStreams;
+import io.micrometer.core.instrument.*;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.service.impl.VoucherOrderHandler.GROUP_NAME;
+
+/**
+ * 订单处理链路的监控指标,通过 /actuator/metrics 查看(只对管理员开放)
+ * 1. 定期 xlen / xinfo groups / xpending 采集每个分区的长度、pending数、积压(lag)和最早pending消息的等待时间
+ * 2. 消费者线程在处理过程中记录落库订单数、批大小、落库耗时和失败次数
+ * 默认暴露的端点在 seckill-metrics.properties 中配置,可以被 application.yaml 覆盖
+ */
+@Component
+@Slf4j
+@PropertySource("classpath:seckill-metrics.properties")
+public class SeckillOrderMetrics {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillOrderStreams seckillOrderStreams;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 采集消息队列指标的间隔(毫秒)
+    @Value("${seckill.order.metrics.interval-ms:5000}")
+    private long intervalMs;
+
+    // stream -> 指标名 -> 最近一次采集的值
+    private final Map<String, Map<String, AtomicLong>> streamGauges = new HashMap<>();
+
+    private Counter persistedCounter;
+    private Counter rejectedCounter;
+    private Counter failureCounter;
+    private Counter deadLetterCounter;
+    private DistributionSummary batchSizeSummary;
+    private Timer persistTimer;
+
+    // 是否已经提示过无法统计积压,只提示一次
+    private volatile boolean lagUnsupportedLogged;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-order-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        // 1. 消息队列指标,每个分区一组
+        for (String streamKey : seckillOrderStreams.keys()) {
+            Map<String, AtomicLong> gauges = new HashMap<>();
+            gauges.put("length", streamGauge("seckill.order.stream.length", streamKey, "消息队列长度"));
+            gauges.put("pending", streamGauge("seckill.order.stream.pending", streamKey, "已投递未确认的消息数"));
+            gauges.put("lag", streamGauge("seckill.order.stream.lag", streamKey, "尚未投递给消费者的消息数,-1代表无法统计"));
+            gauges.put("oldestPendingAge", streamGauge("seckill.order.stream.oldest-pending-age", streamKey,
+                    "最早的pending消息进入队列至今的时间(毫秒)"));
+            streamGauges.put(streamKey, gauges);
+        }
+
+        // 2. 消费者指标
+        persistedCounter = Counter.builder("seckill.order.persisted").description("落库成功的订单数").register(meterRegistry);
+        rejectedCounter = Counter.builder("seckill.order.rejected").description("重复或库存不足被拒绝的订单数").register(meterRegistry);
+        failureCounter = Counter.builder("seckill.order.failures").description("处理失败等待重试的批次数").register(meterRegistry);
+        deadLetterCounter = Counter.builder("seckill.order.dead-lettered").description("转入死信队列的订单数").register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("seckill.order.batch.size").description("每次落库的订单数")
+                .publishPercentileHistogram().register(meterRegistry);
+        persistTimer = Timer.builder("seckill.order.persist").description("每批订单的落库耗时")
+                .publishPercentileHistogram().register(meterRegistry);
+
+        scheduler.scheduleWithFixedDelay(this::collect, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private AtomicLong streamGauge(String name, String streamKey, String description) {
+        AtomicLong value = new AtomicLong();
+        Gauge.builder(name, value, AtomicLong::get).tag("stream", streamKey).description(description).register(meterRegistry);
+        return value;
+    }
+
+    /**
+     * 记录一批订单的处理结果
+     * @param size 批大小
+     * @param persisted 落库成功的订单数
+     * @param nanos 落库耗时(纳秒)
+     */
+    public void recordBatch(int size, int persisted, long nanos) {
+        batchSizeSummary.record(size);
+        persistTimer.record(nanos, TimeUnit.NANOSECONDS);
+        persistedCounter.increment(persisted);
+        rejectedCounter.increment(size - persisted);
+    }
+
+    public void recordFailure() {
+        failureCounter.increment();
+    }
+
+    public void recordDeadLetter() {
+        deadLetterCounter.increment();
+    }
+
+    private void collect() {
+        streamGauges.forEach((streamKey, gauges) -> {
+            try {
+                collect(streamKey, gauges);
+            } catch (Exception e) {
+                log.debug("采集消息队列{}指标失败: {}", streamKey, e.getMessage());
+            }
+        });
+    }
+
+    private void collect(String streamKey, Map<String, AtomicLong> gauges) {
+        // 1. 消息队列长度 xlen
+        Long length = stringRedisTemplate.opsForStream().size(streamKey);
+        gauges.get("length").set(length == null ? 0 : length);
+        if (length == null || length == 0) {
+            gauges.get("pending").set(0);
+            gauges.get("lag").set(0);
+            gauges.get("oldestPendingAge").set(0);
+            return;
+        }
+
+        // 2. 消费者组的pending数和积压 xinfo groups
+        StreamInfo.XInfoGroup group = null;
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+        for (int i = 0; i < groups.size(); i++) {
+            if (GROUP_NAME.equals(groups.get(i).groupName())) {
+                group = groups.get(i);
+            }
+        }
+        if (group == null) {
+            return;
+        }
+        gauges.get("pending").set(group.pendingCount());
+        gauges.get("lag").set(lag(length, group));
+
+        // 3. 最早的pending消息的等待时间,消息id的时间戳部分就是进入队列的时间 xpending stream g1
+        long oldestPendingAge = 0;
+        if (group.pendingCount() > 0) {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, GROUP_NAME);
+            if (summary != null && summary.minRecordId() != null) {
+                oldestPendingAge = Math.max(0, System.currentTimeMillis() - summary.minRecordId().getTimestamp());
+            }
+        }
+        gauges.get("oldestPendingAge").set(oldestPendingAge);
+    }
+
+    /**
+     * 尚未投递给消费者组的消息数,不额外访问Redis
+     * 1. Redis 7 及以上优先使用 xinfo groups 的lag字段
+     * 2. lag字段为空(消息被xdel删除过)时用 xlen - entries-read 估算,没有裁剪过消息队列时是准确的
+     * 3. Redis 7 以下没有entries-read,无法统计,返回-1
+     */
+    private long lag(long length, StreamInfo.XInfoGroup group) {
+        Object lag = group.getRaw().get("lag");
+        if (lag instanceof Number) {
+            return ((Number) lag).longValue();
+        }
+        Object entriesRead = group.getRaw().get("entries-read");
+        if (entriesRead instanceof Number) {
+            return Math.max(0, length - ((Number) entriesRead).longValue());
+        }
+        if (!lagUnsupportedLogged) {
+            lagUnsupportedLogged = true;
+            log.warn("Redis版本低于7,xinfo groups 没有entries-read字段,消息队列积压(lag)指标记录为-1");
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,239 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.utils.SeckillOrderStreams;
+import com.hmdp.utils.lock.ILock;
+import com.hmdp.utils.lock.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_ARCHIVE_KEY;
+
+/**
+ * 订单消息队列的定期裁剪
+ * seckill.lua 的 xadd 不带 maxlen,已确认的消息会一直留在 stream.orders 中
+ * 安全裁剪点取所有消费者组中最小的 (最早的pending消息id,没有pending消息时为last-delivered-id),
+ * 用 xtrim MINID ~ 只删除所有消费者组都已确认的消息,可选先把要删除的消息追加到本地gzip归档文件
+ */
+@Component
+@Slf4j
+public class SeckillOrderStreamTrimmer {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillOrderStreams seckillOrderStreams;
+
+    // 是否开启裁剪,默认关闭. xtrim MINID 需要 Redis 6.2 及以上版本,启动时检查,版本过低时不裁剪
+    @Value("${seckill.order.trim.enabled:false}")
+    private boolean enabled;
+
+    // 裁剪的间隔(毫秒)
+    @Value("${seckill.order.trim.interval-ms:60000}")
+    private long intervalMs;
+
+    // 裁剪前是否把消息归档到本地文件
+    @Value("${seckill.order.archive.enabled:false}")
+    private boolean archiveEnabled;
+
+    // 归档文件所在目录,每个消息队列每天一个文件 {stream}-{yyyyMMdd}.jsonl.gz
+    @Value("${seckill.order.archive.dir:archive}")
+    private String archiveDir;
+
+    // 归档时每次xrange读取的消息数
+    @Value("${seckill.order.archive.page-size:1000}")
+    private int archivePageSize;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-order-trim");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        String version;
+        try {
+            version = redisVersion();
+        } catch (Exception e) {
+            log.warn("获取Redis版本失败,不裁剪订单消息队列: {}", e.getMessage());
+            return;
+        }
+        if (!supportsMinId(version)) {
+            log.warn("Redis版本为{},不支持 xtrim MINID (需要6.2及以上),不裁剪订单消息队列", version);
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::trimAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * info server 中的 redis_version
+     */
+    private String redisVersion() {
+        Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("server"));
+        return info == null ? null : info.getProperty("redis_version");
+    }
+
+    /**
+     * 版本号不小于6.2
+     */
+    private static boolean supportsMinId(String version) {
+        if (version == null) {
+            return false;
+        }
+        String[] parts = version.split("\\.");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 6 || (major == 6 && minor >= 2);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void trimAll() {
+        // 同一时间只有一个实例裁剪,避免多个实例重复归档
+        ILock lock = new SimpleRedisLock("stream-trim", stringRedisTemplate);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            for (String streamKey : seckillOrderStreams.keys()) {
+                trim(streamKey);
+            }
+        } catch (Exception e) {
+            log.error("裁剪订单消息队列异常: {}", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void trim(String streamKey) throws IOException {
+        // 1. 计算安全裁剪点
+        RecordId safeId = safeTrimId(streamKey);
+        if (safeId == null) {
+            return;
+        }
+
+        // 2. 归档安全裁剪点之前的消息
+        if (archiveEnabled) {
+            archive(streamKey, safeId);
+        }
+
+        // 3. xtrim key MINID ~ id  近似裁剪按radix tree节点整块删除,不会删除id不小于安全裁剪点的消息
+        Long trimmed = stringRedisTemplate.execute((RedisCallback<Long>) connection -> (Long) connection.execute("XTRIM",
+                streamKey.getBytes(StandardCharsets.UTF_8), "MINID".getBytes(StandardCharsets.UTF_8),
+                "~".getBytes(StandardCharsets.UTF_8), safeId.getValue().getBytes(StandardCharsets.UTF_8)));
+        if (trimmed != null && trimmed > 0) {
+            log.info("订单消息队列{}裁剪了{}条消息,安全裁剪点: {}", streamKey, trimmed, safeId);
+        }
+    }
+
+    /**
+     * 所有消费者组都已确认的最大位置: 每个消费者组取最早的pending消息id,没有pending消息时取last-delivered-id,再取最小值
+     * @return 安全裁剪点,消息队列不存在、没有消费者组或还没有消费过消息时返回null
+     */
+    private RecordId safeTrimId(String streamKey) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+            return null;
+        }
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+        if (groups.isEmpty()) {
+            return null;
+        }
+        RecordId safeId = null;
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            RecordId groupSafeId = RecordId.of(group.lastDeliveredId());
+            if (group.pendingCount() > 0) {
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, group.groupName());
+                if (summary != null && summary.minRecordId() != null) {
+                    groupSafeId = summary.minRecordId();
+                }
+            }
+            if (safeId == null || compare(groupSafeId, safeId) < 0) {
+                safeId = groupSafeId;
+            }
+        }
+        if (safeId.getTimestamp() == 0 && safeId.getSequence() == 0) {
+            return null;
+        }
+        return safeId;
+    }
+
+    /**
+     * 将 (上次归档位置, 安全裁剪点) 之间的消息追加到gzip归档文件,归档位置记录在Redis中,重启后不会重复归档
+     * 每次追加都是一个独立的gzip member,多个member拼接的文件可以被gzip正常解压
+     */
+    private void archive(String streamKey, RecordId safeId) throws IOException {
+        String positionKey = SECKILL_ORDER_ARCHIVE_KEY + streamKey;
+        String position = stringRedisTemplate.opsForValue().get(positionKey);
+        File file = new File(archiveDir, streamKey + "-" + LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE) + ".jsonl.gz");
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("创建归档目录失败: " + file.getParentFile());
+        }
+
+        while (true) {
+            // 1. 读取上次归档位置之后、安全裁剪点之前的一页消息
+            Range<String> range = Range.of(position == null ? Range.Bound.unbounded() : Range.Bound.exclusive(position),
+                    Range.Bound.exclusive(safeId.getValue()));
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(streamKey, range, RedisZSetCommands.Limit.limit().count(archivePageSize));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+
+            // 2. 追加到归档文件,一行一条消息
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file, true)),
+                    StandardCharsets.UTF_8)) {
+                for (MapRecord<String, Object, Object> record : records) {
+                    Map<Object, Object> line = new LinkedHashMap<>();
+                    line.put("id", record.getId().getValue());
+                    line.putAll(record.getValue());
+                    writer.write(JSONUtil.toJsonStr(line));
+                    writer.write('\n');
+                }
+            }
+
+            // 3. 写入成功后再推进归档位置
+            position = records.get(records.size() - 1).getId().getValue();
+            stringRedisTemplate.opsForValue().set(positionKey, position);
+            if (records.size() < archivePageSize) {
+                return;
+            }
+        }
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int result = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return result != 0 ? result : Long.compare(a.getSequence(), b.getSequence());
+    }
+}
@@ -0,0 +1,294 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillDedupe;
+import com.hmdp.utils.SeckillOrderStreams;
+import com.hmdp.utils.lock.ILock;
+import com.hmdp.utils.lock.SimpleRedisLock;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.service.impl.VoucherOrderHandler.GROUP_NAME;
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * Redis秒杀状态与数据库的对账
+ * 1. 每张秒杀券都满足: Redis库存 + Redis已购用户数 == 数据库库存 + 数据库有效订单数 (都等于初始库存)
+ *    被取消订单的用户会移出已购集合,有效订单不包含已取消的订单
+ *    订单在消息队列中排队时等式仍然成立,不需要等消息队列消费完,能发现Redis丢失写入、数据库重复扣减等问题
+ * 2. 消息队列没有积压时还满足: Redis库存 == 数据库库存,能发现进入死信队列、被消费者丢弃的订单
+ * 数据库订单数用 (voucher_id, id) 上的keyset分页统计,每页之间休眠,低优先级线程执行,控制对数据库的压力
+ * 开启修复后,在消息队列没有积压时以数据库为准修正Redis库存
+ * 修复时持有超时订单取消的锁,避免在取消订单先还数据库库存、后还Redis库存的间隙中重复补库存,
+ * 并在锁内重新读取Redis和数据库库存计算差值
+ */
+@Component
+@Slf4j
+public class SeckillReconciler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillOrderStreams seckillOrderStreams;
+
+    // 是否开启对账
+    @Value("${seckill.reconcile.enabled:true}")
+    private boolean enabled;
+
+    // 对账的间隔(毫秒)
+    @Value("${seckill.reconcile.interval-ms:300000}")
+    private long intervalMs;
+
+    // 秒杀结束后继续对账的时间(小时),覆盖结束前后的取消订单
+    @Value("${seckill.reconcile.ended-hours:24}")
+    private long endedHours;
+
+    // 统计订单时每页的行数
+    @Value("${seckill.reconcile.page-size:500}")
+    private int pageSize;
+
+    // 每页之间的休眠时间(毫秒)
+    @Value("${seckill.reconcile.page-interval-ms:50}")
+    private long pageIntervalMs;
+
+    // 是否自动修复Redis库存
+    @Value("${seckill.reconcile.repair:false}")
+    private boolean repair;
+
+    // voucherId -> 最近一次对账结果
+    private final Map<Long, Report> reports = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-reconcile");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::reconcileAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 最近一次对账结果
+     */
+    public Collection<Report> reports() {
+        return reports.values();
+    }
+
+    private void reconcileAll() {
+        // 同一时间只有一个实例对账
+        ILock lock = new SimpleRedisLock("seckill-reconcile", stringRedisTemplate);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 进行中和刚结束的秒杀券
+            LocalDateTime now = LocalDateTime.now();
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .le("begin_time", now).ge("end_time", now.minusHours(endedHours)).list();
+            for (SeckillVoucher voucher : vouchers) {
+                try {
+                    reconcile(voucher.getVoucherId());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("秒杀券{}对账异常", voucher.getVoucherId(), e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reconcile(Long voucherId) throws InterruptedException {
+        // 1. 记录消息队列的位置,对账结束后位置没变、也没有积压,说明期间没有新订单,Redis和数据库都是静止的
+        String streamKey = seckillOrderStreams.keyOf(voucherId);
+        String lastId = idleLastId(streamKey);
+
+        // 2. Redis库存和已购用户数
+        String voucherKey = SECKILL_VOUCHER_KEY + voucherId;
+        Object dedupe = stringRedisTemplate.opsForHash().get(voucherKey, "dedupe");
+        String stockKey = SECKILL_STOCK_KEY + voucherId;
+        long redisStock = parseStock(stringRedisTemplate.opsForValue().get(stockKey));
+        Long redisBuyers = buyerCount(voucherId, dedupe == null ? SeckillDedupe.SET : dedupe.toString());
+
+        // 3. 数据库库存和有效订单数(除已取消外)
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        long dbStock = seckillVoucher.getStock();
+        long dbOrders = countOrders(voucherId);
+
+        // 4. 比较. 布隆过滤器无法统计用户数,不比较总量
+        Report report = new Report();
+        report.setVoucherId(voucherId);
+        report.setRedisStock(redisStock);
+        report.setRedisBuyers(redisBuyers);
+        report.setDbStock(dbStock);
+        report.setDbOrders(dbOrders);
+        report.setTime(LocalDateTime.now());
+        boolean idle = lastId != null && lastId.equals(idleLastId(streamKey));
+        if (redisBuyers != null) {
+            report.setDrift((redisStock + redisBuyers) - (dbStock + dbOrders));
+        }
+        if (idle) {
+            report.setStockDrift(redisStock - dbStock);
+        }
+        reports.put(voucherId, report);
+        boolean consistent = (report.getDrift() == null || report.getDrift() == 0)
+                && (report.getStockDrift() == null || report.getStockDrift() == 0);
+        if (consistent) {
+            return;
+        }
+        log.warn("秒杀券{}的Redis状态与数据库不一致: {}", voucherId, report);
+
+        // 5. 修复: 没有积压时数据库库存就是Redis库存应有的值
+        if (repair && idle && redisStock != dbStock) {
+            report.setRepaired(repairStock(voucherId, streamKey, stockKey));
+        }
+    }
+
+    private static long parseStock(String stock) {
+        return stock == null ? 0 : Long.parseLong(stock);
+    }
+
+    /**
+     * 消息队列没有积压时返回最后一条消息的id,否则返回null
+     * 积压: 消费者组还有pending消息,或者还有消息没有投递
+     */
+    private String idleLastId(String streamKey) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+            return "0-0";
+        }
+        StreamInfo.XInfoStream stream = stringRedisTemplate.opsForStream().info(streamKey);
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            if (GROUP_NAME.equals(group.groupName())) {
+                boolean idle = group.pendingCount() == 0 && stream.lastGeneratedId().equals(group.lastDeliveredId());
+                return idle ? stream.lastGeneratedId() : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Redis中的已购用户数, set用scard, bitmap用bitcount, 布隆过滤器无法统计返回null
+     */
+    private Long buyerCount(Long voucherId, String dedupe) {
+        if (SeckillDedupe.BITMAP.equals(dedupe)) {
+            byte[] key = ("seckill:order:bits:" + voucherId).getBytes(StandardCharsets.UTF_8);
+            return stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key));
+        }
+        if (SeckillDedupe.BLOOM.equals(dedupe)) {
+            return null;
+        }
+        return stringRedisTemplate.opsForSet().size(SECKILL_ORDER_KEY + voucherId);
+    }
+
+    /**
+     * keyset分页统计有效订单数 select id, status from tb_voucher_order where voucher_id = ? and id > ? order by id limit n
+     * 每页走 (voucher_id, id) 索引的范围扫描,不会因为翻页变慢
+     */
+    private long countOrders(Long voucherId) throws InterruptedException {
+        long count = 0;
+        long lastId = 0;
+        while (true) {
+            List<VoucherOrder> page = voucherOrderService.query().select("id", "status")
+                    .eq("voucher_id", voucherId).gt("id", lastId).orderByAsc("id")
+                    .last("limit " + pageSize).list();
+            for (VoucherOrder order : page) {
+                // 订单状态 4：已取消
+                if (order.getStatus() != 4) {
+                    count++;
+                }
+            }
+            if (page.size() < pageSize) {
+                return count;
+            }
+            lastId = page.get(page.size() - 1).getId();
+            Thread.sleep(pageIntervalMs);
+        }
+    }
+
+    /**
+     * 按差值修正Redis库存,用incrby而不是set,修复期间新下单的扣减不会被覆盖
+     * 1. 持有超时订单取消的锁,期间不会有订单只还了数据库库存、还没还Redis库存
+     * 2. 统计订单时各页之间有休眠,之前读到的库存可能已经过时,在锁内重新读取,前后消息队列都没有积压才修复
+     * @return 是否修复
+     */
+    private boolean repairStock(Long voucherId, String streamKey, String stockKey) {
+        ILock lock = new SimpleRedisLock(UnpaidOrderCanceller.CANCEL_LOCK_NAME, stringRedisTemplate);
+        if (!lock.tryLock()) {
+            log.info("超时订单正在取消,秒杀券{}下次再修复", voucherId);
+            return false;
+        }
+        try {
+            // 1. 重新读取Redis和数据库库存
+            String lastId = idleLastId(streamKey);
+            long redisStock = parseStock(stringRedisTemplate.opsForValue().get(stockKey));
+            long dbStock = seckillVoucherService.getById(voucherId).getStock();
+            if (lastId == null || !lastId.equals(idleLastId(streamKey))) {
+                return false;
+            }
+            long delta = dbStock - redisStock;
+            if (delta == 0) {
+                return false;
+            }
+
+            // 2. 按差值修正
+            stringRedisTemplate.opsForValue().increment(stockKey, delta);
+            log.warn("已修复秒杀券{}的Redis库存, 差值: {}", voucherId, delta);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 单张秒杀券的对账结果
+     */
+    @Data
+    public static class Report {
+        private Long voucherId;
+        private Long redisStock;
+        // 布隆过滤器模式下为null
+        private Long redisBuyers;
+        private Long dbStock;
+        private Long dbOrders;
+        // (Redis库存 + Redis已购用户数) - (数据库库存 + 数据库订单数),布隆过滤器模式下为null
+        private Long drift;
+        // Redis库存 - 数据库库存,消息队列有积压时为null
+        private Long stockDrift;
+        private boolean repaired;
+        private LocalDateTime time;
+    }
+}
@@ -0,0 +1,139 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀排队(虚拟等候室)
+ * 开启排队的秒杀券,用户先进入 seckill:queue:{voucherId} (zset, score为进入时间) 排队
+ * 调度线程按配置的速率从队头放行用户,为每个用户发放一次性购买令牌 seckill:token:{voucherId}:{userId}
+ * seckill.lua 只接受持有令牌的请求,开抢瞬间的峰值被削平为固定的放行速率
+ */
+@Component
+@Slf4j
+public class SeckillWaitingRoom {
+
+    // 进入队列,已放行的用户返回令牌
+    private static final DefaultRedisScript<List<Object>> ENTER_SCRIPT;
+    // 按速率放行队头的用户并发放令牌
+    private static final DefaultRedisScript<Long> ADMIT_SCRIPT;
+    static {
+        ENTER_SCRIPT = new DefaultRedisScript<>();
+        ENTER_SCRIPT.setLocation(new ClassPathResource("seckill_queue_enter.lua"));
+        @SuppressWarnings("unchecked")
+        Class<List<Object>> resultType = (Class<List<Object>>) (Class<?>) List.class;
+        ENTER_SCRIPT.setResultType(resultType);
+        ADMIT_SCRIPT = new DefaultRedisScript<>();
+        ADMIT_SCRIPT.setLocation(new ClassPathResource("seckill_queue_admit.lua"));
+        ADMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 放行的间隔(毫秒),每轮放行 速率*间隔 个用户
+    @Value("${seckill.waiting-room.interval-ms:100}")
+    private long intervalMs;
+
+    // 每轮最多放行的人数
+    @Value("${seckill.waiting-room.max-batch:1000}")
+    private int maxBatch;
+
+    // 购买令牌的有效期(秒),放行后超过这个时间没有下单需要重新排队
+    @Value("${seckill.waiting-room.token-ttl-seconds:300}")
+    private long tokenTtlSeconds;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-waiting-room");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        scheduler.scheduleWithFixedDelay(this::admitAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开启或关闭秒杀券的排队模式
+     * @param voucherId 优惠券id
+     * @param rate 每秒放行的人数,小于等于0代表关闭排队
+     */
+    public void setRate(Long voucherId, int rate) {
+        String voucherKey = SECKILL_VOUCHER_KEY + voucherId;
+        if (rate > 0) {
+            stringRedisTemplate.opsForHash().put(voucherKey, "waitingRoom", String.valueOf(rate));
+            stringRedisTemplate.opsForSet().add(SECKILL_QUEUE_VOUCHERS_KEY, voucherId.toString());
+            return;
+        }
+        // 关闭排队后不再校验令牌,仍在排队的用户可以直接抢购
+        stringRedisTemplate.opsForHash().delete(voucherKey, "waitingRoom", "admitTs");
+        close(voucherId);
+    }
+
+    /**
+     * 进入队列,重复调用可以查询排队位置
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 已放行时返回 {token}, 排队中返回 {position}
+     */
+    public Result enter(Long voucherId, Long userId) {
+        List<Object> result = stringRedisTemplate.execute(ENTER_SCRIPT,
+                Arrays.asList(SECKILL_QUEUE_KEY + voucherId, SECKILL_TOKEN_KEY + voucherId + ":" + userId,
+                        SECKILL_VOUCHER_KEY + voucherId),
+                userId.toString(), String.valueOf(System.currentTimeMillis()));
+        long code = (Long) result.get(0);
+        if (code < 0) {
+            return Result.fail("该秒杀活动无需排队");
+        }
+        return Result.ok(Collections.singletonMap(code == 0 ? "token" : "position", result.get(1)));
+    }
+
+    private void admitAll() {
+        try {
+            Set<String> voucherIds = stringRedisTemplate.opsForSet().members(SECKILL_QUEUE_VOUCHERS_KEY);
+            if (voucherIds == null) {
+                return;
+            }
+            // 每轮一个随机盐,令牌无法被猜出
+            String salt = UUID.randomUUID().toString(true);
+            for (String voucherId : voucherIds) {
+                Long admitted = stringRedisTemplate.execute(ADMIT_SCRIPT,
+                        Arrays.asList(SECKILL_QUEUE_KEY + voucherId, SECKILL_VOUCHER_KEY + voucherId),
+                        voucherId, String.valueOf(System.currentTimeMillis()), salt,
+                        String.valueOf(tokenTtlSeconds), String.valueOf(maxBatch));
+                if (admitted != null && admitted < 0) {
+                    // 排队已关闭或秒杀已结束
+                    close(Long.valueOf(voucherId));
+                } else if (admitted != null && admitted > 0) {
+                    log.debug("秒杀券{}放行了{}个排队用户", voucherId, admitted);
+                }
+            }
+        } catch (Exception e) {
+            log.error("放行排队用户异常: {}", e);
+        }
+    }
+
+    private void close(Long voucherId) {
+        stringRedisTemplate.opsForSet().remove(SECKILL_QUEUE_VOUCHERS_KEY, voucherId.toString());
+        stringRedisTemplate.delete(SECKILL_QUEUE_KEY + voucherId);
+    }
+}
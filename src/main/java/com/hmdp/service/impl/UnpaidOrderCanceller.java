@@ -0,0 +1,193 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.lock.ILock;
+import com.hmdp.utils.lock.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_TIMEOUT_KEY;
+
+/**
+ * 超时未支付订单的延迟取消
+ * 订单落库后写入 seckill:order-timeout (zset, score为支付截止时间),相当于按截止时间排好序的时间轮
+ * 定时批量取出到期订单,一条UPDATE批量取消,并把库存还给数据库和Redis
+ * 不为每个订单创建定时器,待支付订单再多也只占用zset的内存
+ * 取出的订单先推迟到期时间而不删除,数据库和Redis都处理成功后才从zset中删除,中途宕机时会被重新取出;
+ * Redis中每个订单只归还一次库存,重试不会多还
+ * 被取消订单的用户移出已购集合,可以再次购买; 数据库的一人一单唯一索引不包含已取消的订单
+ * 每批订单在 lock:seckill-cancel 锁内处理,对账修复Redis库存时持有同一把锁
+ */
+@Component
+@Slf4j
+public class UnpaidOrderCanceller {
+
+    // 取消订单与对账修复库存共用的锁
+    static final String CANCEL_LOCK_NAME = "seckill-cancel";
+
+    // 取出到期订单,并推迟它们的到期时间
+    private static final DefaultRedisScript<List<String>> POP_SCRIPT;
+    // 归还Redis库存,每个订单只归还一次
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+    static {
+        POP_SCRIPT = new DefaultRedisScript<>();
+        POP_SCRIPT.setLocation(new ClassPathResource("seckill_timeout_pop.lua"));
+        @SuppressWarnings("unchecked")
+        Class<List<String>> resultType = (Class<List<String>>) (Class<?>) List.class;
+        POP_SCRIPT.setResultType(resultType);
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill_cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 注入的是代理对象,保证取消订单的事务生效
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    // 下单后多久未支付自动取消(分钟)
+    @Value("${seckill.order.pay-timeout-minutes:15}")
+    private long payTimeoutMinutes;
+
+    // 每批最多取消的订单数
+    @Value("${seckill.order.cancel.batch-size:500}")
+    private int batchSize;
+
+    // 扫描到期订单的间隔(毫秒)
+    @Value("${seckill.order.cancel.interval-ms:1000}")
+    private long intervalMs;
+
+    // 取出的订单多久没有处理完会被重新取出(毫秒)
+    @Value("${seckill.order.cancel.retry-ms:60000}")
+    private long retryMs;
+
+    // Redis库存归还标记的保留时间(秒),需要远大于重试间隔
+    @Value("${seckill.order.cancel.restocked-ttl-seconds:86400}")
+    private long restockedTtlSeconds;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-order-cancel");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        scheduler.scheduleWithFixedDelay(this::cancelExpiredOrders, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 登记订单的支付截止时间,一次zadd nx写入整批订单
+     * 只登记仍未支付的订单; 重复投递的消息不会推迟已登记订单的截止时间,也不会把已支付、已取消的订单重新登记
+     * @param orders 已落库的订单
+     */
+    public void schedule(List<VoucherOrder> orders) {
+        // 1. 查询仍未支付的订单 (订单状态 1：未支付)
+        List<Long> orderIds = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        List<VoucherOrder> unpaid = voucherOrderService.query().select("id")
+                .in("id", orderIds).eq("status", 1).list();
+        if (unpaid.isEmpty()) {
+            return;
+        }
+
+        // 2. zadd nx,已登记的订单保持原来的截止时间
+        double deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(payTimeoutMinutes);
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(unpaid.size());
+        for (VoucherOrder order : unpaid) {
+            tuples.add(new DefaultTypedTuple<>(order.getId().toString(), deadline));
+        }
+        stringRedisTemplate.opsForZSet().addIfAbsent(SECKILL_ORDER_TIMEOUT_KEY, tuples);
+    }
+
+    private void cancelExpiredOrders() {
+        try {
+            // 一批取满说明可能还有到期订单,继续处理下一批
+            while (cancelBatch() == batchSize) {
+                log.debug("继续取消下一批超时订单");
+            }
+        } catch (Exception e) {
+            log.error("取消超时订单异常: {}", e);
+        }
+    }
+
+    private int cancelBatch() {
+        // 先还数据库库存、后还Redis库存,整批在锁内处理,对账不会在两步之间修复库存
+        ILock lock = new SimpleRedisLock(CANCEL_LOCK_NAME, stringRedisTemplate);
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            return cancelBatchLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int cancelBatchLocked() {
+        // 1. 取出到期订单,并推迟它们的到期时间,处理成功前不删除
+        List<String> popped = stringRedisTemplate.execute(POP_SCRIPT, Collections.singletonList(SECKILL_ORDER_TIMEOUT_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(batchSize), String.valueOf(retryMs));
+        if (popped == null || popped.isEmpty()) {
+            return 0;
+        }
+        List<Long> orderIds = popped.stream().map(Long::valueOf).collect(Collectors.toList());
+
+        // 2. 数据库中取消仍未支付的订单,并归还数据库库存. 失败时订单留在zset中,到期后重试
+        List<VoucherOrder> cancelled = voucherOrderService.cancelUnpaidOrders(orderIds);
+
+        // 3. 归还Redis库存. 包括之前的重试中已在数据库取消、但还没归还Redis库存的订单 (订单状态 4：已取消)
+        List<VoucherOrder> toRestock = voucherOrderService.query().select("id", "user_id", "voucher_id")
+                .in("id", orderIds).eq("status", 4).list();
+        restock(toRestock);
+
+        // 4. 全部处理成功,从zset中删除
+        stringRedisTemplate.opsForZSet().remove(SECKILL_ORDER_TIMEOUT_KEY, popped.toArray());
+        log.info("取消了{}个超时未支付订单", cancelled.size());
+        return popped.size();
+    }
+
+    /**
+     * 归还订单占用的Redis库存,并把用户移出已购集合,每个订单只归还一次,重试不会多还
+     * 除了被取消的订单,也用于布隆过滤器误判放行后没能落库的订单
+     * @param orders 需要归还库存的订单
+     */
+    public void restock(List<VoucherOrder> orders) {
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            List<String> args = new ArrayList<>(entry.getValue().size() * 2 + 2);
+            args.add(entry.getKey().toString());
+            args.add(String.valueOf(restockedTtlSeconds));
+            entry.getValue().forEach(order -> {
+                args.add(order.getId().toString());
+                args.add(order.getUserId().toString());
+            });
+            Long returned = stringRedisTemplate.execute(CANCEL_SCRIPT, Collections.emptyList(), args.toArray());
+            // 有库存归还,清除各实例的售罄标记
+            if (returned != null && returned > 0) {
+                seckillSoldOutRegistry.restock(entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,692 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillOrderStreams;
+import com.hmdp.utils.lock.HybridLock;
+import com.hmdp.utils.lock.ILock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.hmdp.utils.RedisConstants.SECKILL_PARTITION_OWNER_KEY;
+
+/**
+ * 从Redis Stream消息队列取订单,异步执行数据库更新操作
+ * 每个实例启动一组消费者,消费者名称由实例id和线程序号组成,重启后沿用原来的名称,多实例多线程水平扩展
+ * 长时间没有读取消息、也没有pending消息的消费者(例如已下线的实例)会从消费者组中删除
+ * 订单消息队列分区时,实例内每个分区分配给一个消费者线程,消费者还要持有分区的Redis租约 seckill:partition:owner:{分区}
+ * 才会读取该分区,所有实例中每个分区同时只有一个消费者,不同优惠券的订单并行落库,同一优惠券的订单串行落库;
+ * 持有者宕机后租约过期,由其他实例中分配到该分区的消费者接管,包括接管原持有者的pending消息
+ * 分区之前的 stream.orders 还有消息时由第一个消费者继续消费,新消息和pending消息都处理完后不再读取
+ * 消费者定期通过 xpending + xclaim 接管已宕机消费者长时间未确认的消息,每次检查一页,下次从上一页之后继续
+ * 处理失败的消息按投递次数指数退避重试,超过最大次数后转入死信队列 stream.orders.dlq
+ * 生命周期由Spring管理: 关闭时停止读取新消息,在限定时间内处理完并确认当前批次,再把自己的pending消息交给其他实例立即接管
+ */
+@Component
+@Slf4j
+public class VoucherOrderHandler implements SmartLifecycle {
+
+    // Redis Stream 消费者组名称
+    static final String GROUP_NAME = "g1";
+
+    // 获取或续期分区租约
+    private static final DefaultRedisScript<Long> PARTITION_LEASE_SCRIPT;
+    // 释放分区租约
+    private static final DefaultRedisScript<Long> PARTITION_RELEASE_SCRIPT;
+    static {
+        PARTITION_LEASE_SCRIPT = new DefaultRedisScript<>();
+        PARTITION_LEASE_SCRIPT.setLocation(new ClassPathResource("seckill_partition_lease.lua"));
+        PARTITION_LEASE_SCRIPT.setResultType(Long.class);
+        PARTITION_RELEASE_SCRIPT = new DefaultRedisScript<>();
+        PARTITION_RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_partition_release.lua"));
+        PARTITION_RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 注入的是代理对象,消费者线程调用创建订单的函数时事务不会失效
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private UnpaidOrderCanceller unpaidOrderCanceller;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillOrderStreams seckillOrderStreams;
+
+    @Resource
+    private SeckillOrderMetrics seckillOrderMetrics;
+
+    // 是否依赖 (user_id, voucher_id) 唯一索引幂等落库,开启后不再加用户锁、不再事先count查询
+    @Value("${seckill.order.idempotent-insert:false}")
+    private boolean idempotentInsert;
+
+    // 每个实例的消费者线程数,分区时不超过分区数
+    @Value("${seckill.order.consumers:2}")
+    private int consumerCount;
+
+    // 是否开启批量消费模式
+    @Value("${seckill.order.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    // 批量消费模式下每批最多处理的消息数
+    @Value("${seckill.order.batch.size:100}")
+    private int batchSize;
+
+    // 批量消费模式下读到第一条消息后最多再等待多久凑批(毫秒)
+    @Value("${seckill.order.batch.max-wait-ms:200}")
+    private long batchMaxWaitMs;
+
+    // 消息超过这个时间仍未被确认,就认为原消费者已经宕机,可以被其他消费者接管(毫秒)
+    @Value("${seckill.order.claim.min-idle-ms:60000}")
+    private long claimMinIdleMs;
+
+    // 每个消费者检查一次pendingList的间隔(毫秒)
+    @Value("${seckill.order.claim.interval-ms:1000}")
+    private long recoverIntervalMs;
+
+    // 每次最多检查的pending消息数,超过时分页,下次检查从上一页之后继续
+    @Value("${seckill.order.claim.count:100}")
+    private int claimCount;
+
+    // 实例id,消费者名称为 {实例id}-seckill-order-{序号}. 默认为主机名,同一主机上部署多个实例时需要分别配置
+    @Value("${seckill.order.consumer.instance-id:}")
+    private String instanceId;
+
+    // 消费者空闲超过这个时间(毫秒)且没有pending消息时从消费者组中删除
+    @Value("${seckill.order.consumer.delete-idle-ms:3600000}")
+    private long deleteIdleConsumerMs;
+
+    // 每条消息最多投递的次数,超过后转入死信队列
+    @Value("${seckill.order.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    // 失败重试的初始退避时间(毫秒),每多失败一次翻倍
+    @Value("${seckill.order.retry.backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    // 失败重试的最大退避时间(毫秒)
+    @Value("${seckill.order.retry.max-backoff-ms:60000}")
+    private long retryMaxBackoffMs;
+
+    // 关闭时等待消费者处理完当前批次的最长时间(毫秒)
+    @Value("${seckill.order.shutdown.drain-timeout-ms:10000}")
+    private long drainTimeoutMs;
+
+    // 分区租约的有效期(毫秒),每 1/3 有效期续期一次,需要大于处理一个批次的时间
+    @Value("${seckill.order.partition.lease-ms:30000}")
+    private long partitionLeaseMs;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    /**
+     * 容器启动完成后启动消费者
+     */
+    @Override
+    public void start() {
+        // 1. 创建每个分区的消费者组,已存在时忽略
+        List<String> streamKeys = seckillOrderStreams.keys();
+        streamKeys.forEach(this::createGroup);
+
+        // 2. 分配分区: 第i个消费者负责 p % 消费者数 == i 的分区. 不分区时所有消费者共同消费 stream.orders
+        int partitions = streamKeys.size();
+        int consumers = partitions > 1 ? Math.min(consumerCount, partitions) : consumerCount;
+        List<List<String>> assignments = new ArrayList<>(consumers);
+        for (int i = 0; i < consumers; i++) {
+            assignments.add(partitions > 1 ? new ArrayList<>() : streamKeys);
+        }
+        if (partitions > 1) {
+            for (int p = 0; p < partitions; p++) {
+                assignments.get(p % consumers).add(streamKeys.get(p));
+            }
+            // 2.1 开启分区之前写入 stream.orders 的消息交给第一个消费者继续消费
+            String legacyKey = seckillOrderStreams.legacyKey();
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(legacyKey))) {
+                createGroup(legacyKey);
+                assignments.get(0).add(legacyKey);
+            }
+        }
+
+        // 3. 启动消费者. 实例名不包含进程号,重启后消费者名称不变,不会在消费者组中留下越来越多的消费者
+        running = true;
+        String instanceName = StrUtil.isBlank(instanceId) ? NetUtil.getLocalHostName() : instanceId;
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(consumers,
+                r -> new Thread(r, "seckill-order-" + threadIndex.getAndIncrement()));
+        for (List<String> assignment : assignments) {
+            executor.submit(new OrderConsumer(instanceName, assignment, partitions > 1));
+        }
+    }
+
+    /**
+     * 容器关闭时停止消费者
+     * 消费者最多阻塞2秒读取消息,收到停止信号后处理完手上的批次并退出,超过drainTimeout仍未退出则中断线程
+     * 数据库事务被中断时会回滚,消息留在pendingList中,由其他实例重新处理
+     */
+    @Override
+    public void stop() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(drainTimeoutMs, TimeUnit.MILLISECONDS)) {
+                log.warn("订单消费者{}毫秒内未处理完当前批次,强制中断", drainTimeoutMs);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * xgroup create key g1 0 mkstream
+     */
+    private void createGroup(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    ((StringRedisConnection) connection).xGroupCreate(streamKey, ReadOffset.from("0"), GROUP_NAME, true));
+        } catch (Exception e) {
+            // BUSYGROUP 消费者组已存在
+            if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 单个消费者,消费者名称在线程启动后根据线程名确定
+     */
+    private class OrderConsumer implements Runnable {
+
+        private final String instanceName;
+
+        // 分配给该消费者的消息队列,分区前的消息队列消费完后移除
+        private final List<String> assignedKeys;
+
+        // 分区时需要持有租约才能读取
+        private final boolean leased;
+
+        // 正在读取的消息队列: 不分区时就是分配的消息队列,分区时是其中持有租约的分区
+        private List<String> streamKeys;
+
+        private StreamOffset<String>[] offsets;
+
+        private long nextLeaseTime;
+
+        private String consumerName;
+
+        private long nextRecoverTime;
+
+        private long nextCleanupTime;
+
+        // 每个消息队列下一页pending消息的起始id,检查到最后一页后回到开头
+        private final Map<String, String> pendingCursors = new HashMap<>();
+
+        OrderConsumer(String instanceName, List<String> assignedKeys, boolean leased) {
+            this.instanceName = instanceName;
+            this.assignedKeys = new ArrayList<>(assignedKeys);
+            this.leased = leased;
+            this.streamKeys = leased ? new ArrayList<>() : new ArrayList<>(assignedKeys);
+            this.offsets = offsetsOf(this.streamKeys);
+        }
+
+        @SuppressWarnings("unchecked")
+        private StreamOffset<String>[] offsetsOf(List<String> streamKeys) {
+            return streamKeys.stream()
+                    .map(key -> StreamOffset.create(key, ReadOffset.lastConsumed()))
+                    .toArray(StreamOffset[]::new);
+        }
+
+        @Override
+        public void run() {
+            consumerName = instanceName + "-" + Thread.currentThread().getName();
+            log.info("订单消费者启动: {}, 消息队列: {}", consumerName, assignedKeys);
+            while (running) {
+                try {
+                    // 0. 分区时续期已持有的租约,尝试获取没有持有者的分区,一个分区都没有时等待下一次获取
+                    renewLeases();
+                    if (streamKeys.isEmpty()) {
+                        Thread.sleep(Math.min(partitionLeaseMs / 3, 2000));
+                        continue;
+                    }
+
+                    // 1. 定期重试失败的消息、接管宕机消费者的消息、将重试次数耗尽的消息转入死信队列
+                    recoverPending();
+
+                    // 2. 获取消息队列的信息 xreadgroup group g1 consumer count n block 2000 streams stream.orders >
+                    List<MapRecord<String, Object, Object>> list = batchEnabled ? readBatch() : readOne();
+
+                    // 3. 判断消息是否获取成功,获取失败就下一次循环
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+
+                    // 4. 创建订单并ack,失败的消息留在pendingList中等待重试,不阻塞新订单
+                    handleRecordsSafely(list);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    log.error("处理订单异常: {}", e);
+                    // Redis等基础设施异常时避免空转
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+            }
+            // 退出前释放自己的pending消息和分区租约,先清除中断标记保证Redis命令可以执行
+            Thread.interrupted();
+            releasePending();
+            releaseLeases();
+            log.info("订单消费者已停止: {}", consumerName);
+        }
+
+        /**
+         * 每 1/3 租约有效期检查一次分配给自己的分区: 已持有的续期,没有持有者的获取,由其他实例持有的跳过
+         * 续期失败说明租约已过期并被其他消费者获取,不再读取该分区
+         */
+        private void renewLeases() {
+            long now = System.currentTimeMillis();
+            if (!leased || now < nextLeaseTime) {
+                return;
+            }
+            nextLeaseTime = now + partitionLeaseMs / 3;
+            List<String> owned = new ArrayList<>(assignedKeys.size());
+            for (String streamKey : assignedKeys) {
+                Long result = stringRedisTemplate.execute(PARTITION_LEASE_SCRIPT,
+                        Collections.singletonList(SECKILL_PARTITION_OWNER_KEY + streamKey),
+                        consumerName, String.valueOf(partitionLeaseMs));
+                if (result != null && result == 1) {
+                    owned.add(streamKey);
+                }
+            }
+            if (!owned.equals(streamKeys)) {
+                log.info("消费者{}持有的分区: {} -> {}", consumerName, streamKeys, owned);
+                streamKeys = owned;
+                offsets = offsetsOf(streamKeys);
+            }
+        }
+
+        /**
+         * 释放持有的分区租约,其他实例的消费者下一次检查时就会获取,不必等待租约过期
+         */
+        private void releaseLeases() {
+            if (!leased) {
+                return;
+            }
+            streamKeys.forEach(this::releaseLease);
+        }
+
+        private void releaseLease(String streamKey) {
+            try {
+                stringRedisTemplate.execute(PARTITION_RELEASE_SCRIPT,
+                        Collections.singletonList(SECKILL_PARTITION_OWNER_KEY + streamKey), consumerName);
+            } catch (Exception e) {
+                log.warn("释放分区租约失败, 消费者: {}, 消息队列: {}", consumerName, streamKey, e);
+            }
+        }
+
+        /**
+         * 把自己的pending消息标记为已空闲claimMinIdle,其他实例的消费者下一次检查pendingList时就会接管,不必等待超时
+         * xclaim stream.orders g1 consumer 0 id1 id2 ... idle claimMinIdle justid  (justid不增加投递次数)
+         */
+        private void releasePending() {
+            for (String streamKey : streamKeys) {
+                try {
+                    PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(streamKey,
+                            Consumer.from(GROUP_NAME, consumerName), Range.unbounded(), Math.max(claimCount, batchSize));
+                    if (pendingMessages.isEmpty()) {
+                        continue;
+                    }
+                    RecordId[] ids = pendingMessages.stream().map(PendingMessage::getId).toArray(RecordId[]::new);
+                    stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                            ((StringRedisConnection) connection).xClaimJustId(streamKey, GROUP_NAME, consumerName,
+                                    RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(ids)
+                                            .idle(Duration.ofMillis(claimMinIdleMs))));
+                    log.info("消费者{}释放了{}条pending消息: {}", consumerName, ids.length, streamKey);
+                } catch (Exception e) {
+                    log.error("释放pending消息失败, 消费者: {}, 消息队列: {}", consumerName, streamKey, e);
+                }
+            }
+        }
+
+        /**
+         * 每个分区最多读取一条消息
+         */
+        private List<MapRecord<String, Object, Object>> readOne() {
+            return stringRedisTemplate.opsForStream().read(
+                    Consumer.from(GROUP_NAME, consumerName),
+                    StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                    offsets
+            );
+        }
+
+        /**
+         * 凑批读取消息
+         * 一次xreadgroup最多读取batchSize条消息,读到第一条消息后最多再等待batchMaxWait毫秒
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            long deadline = 0;
+            while (batch.size() < batchSize) {
+                // 第一次读取阻塞等待新消息,读到消息之后只在剩余的凑批时间内继续等待
+                Duration block = Duration.ofSeconds(2);
+                if (!batch.isEmpty()) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    block = Duration.ofMillis(remaining);
+                }
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(GROUP_NAME, consumerName),
+                        StreamReadOptions.empty().count(batchSize - batch.size()).block(block),
+                        offsets
+                );
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                if (batch.isEmpty()) {
+                    deadline = System.currentTimeMillis() + batchMaxWaitMs;
+                }
+                batch.addAll(list);
+            }
+            return batch;
+        }
+
+        /**
+         * 创建订单,成功后ack确认
+         * 批量模式下整批订单在一个事务中落库,最后用一次xack确认全部消息
+         */
+        private void handleRecords(List<? extends MapRecord<String, ?, ?>> list) {
+            // 1. 解析消息,按所在分区记录消息id
+            List<VoucherOrder> orders = new ArrayList<>(list.size());
+            Map<String, List<RecordId>> recordIds = new HashMap<>();
+            Set<VoucherOrder> rechecked = new HashSet<>();
+            for (MapRecord<String, ?, ?> entries : list) {
+                VoucherOrder order = BeanUtil.fillBeanWithMap(entries.getValue(), new VoucherOrder(), true);
+                orders.add(order);
+                recordIds.computeIfAbsent(entries.getStream(), k -> new ArrayList<>()).add(entries.getId());
+                if ("1".equals(entries.getValue().get("recheck"))) {
+                    rechecked.add(order);
+                }
+            }
+
+            // 2. 创建订单
+            long start = System.nanoTime();
+            List<VoucherOrder> persisted;
+            if (idempotentInsert) {
+                // 一人一单由唯一索引保证
+                if (batchEnabled) {
+                    persisted = voucherOrderService.createVoucherOrdersIdempotent(orders);
+                } else {
+                    persisted = new ArrayList<>(orders.size());
+                    for (VoucherOrder order : orders) {
+                        if (voucherOrderService.createVoucherOrderIdempotent(order)) {
+                            persisted.add(order);
+                        }
+                    }
+                }
+            } else if (batchEnabled) {
+                // 一人一单由批量查询保证,不再逐个加用户锁
+                persisted = voucherOrderService.createVoucherOrders(orders);
+            } else {
+                persisted = new ArrayList<>(orders.size());
+                for (VoucherOrder order : orders) {
+                    if (addLockBeforeCreateVoucherOrder(order)) {
+                        persisted.add(order);
+                    }
+                }
+            }
+
+            seckillOrderMetrics.recordBatch(orders.size(), persisted.size(), System.nanoTime() - start);
+
+            // 3. 登记支付截止时间,超时未支付自动取消
+            if (!persisted.isEmpty()) {
+                unpaidOrderCanceller.schedule(persisted);
+            }
+
+            // 4. 记录订单的最终状态,供客户端查询下单结果
+            List<VoucherOrder> failed = new ArrayList<>(orders);
+            failed.removeAll(persisted);
+            seckillOrderStatus.finish(persisted, failed);
+
+            // 5. 布隆过滤器命中后确认放行的订单没能落库,说明确认之后用户的另一个订单已经落库,归还Redis库存
+            List<VoucherOrder> toRestock = failed.stream().filter(rechecked::contains).collect(Collectors.toList());
+            if (!toRestock.isEmpty()) {
+                unpaidOrderCanceller.restock(toRestock);
+            }
+
+            // 6. ack确认 xack stream.orders g1 id1 id2 ...
+            recordIds.forEach((streamKey, ids) -> stringRedisTemplate.opsForStream()
+                    .acknowledge(streamKey, GROUP_NAME, ids.toArray(new RecordId[0])));
+        }
+
+        /**
+         * 创建订单并ack,失败时只记录日志
+         * 失败的消息留在pendingList中,由recoverPending按投递次数退避重试
+         * @return true 代表处理成功
+         */
+        private boolean handleRecordsSafely(List<? extends MapRecord<String, ?, ?>> list) {
+            try {
+                handleRecords(list);
+                return true;
+            } catch (Exception e) {
+                seckillOrderMetrics.recordFailure();
+                log.error("处理订单异常, 消息: {}", list.stream().map(MapRecord::getId).collect(Collectors.toList()), e);
+                return false;
+            }
+        }
+
+        /**
+         * 定期处理pendingList
+         * 1. 自己处理失败的消息,按投递次数指数退避后重试
+         * 2. 其他消费者超过claimMinIdle仍未确认的消息,认为原消费者已宕机,接管后重试
+         * 3. 投递次数达到上限的消息转入死信队列并ack,不再阻塞消费者
+         */
+        private void recoverPending() {
+            long now = System.currentTimeMillis();
+            // 开始停止后不再接管新的消息,留给其他实例处理
+            if (!running || now < nextRecoverTime) {
+                return;
+            }
+            nextRecoverTime = now + recoverIntervalMs;
+            for (String streamKey : new ArrayList<>(streamKeys)) {
+                if (!running) {
+                    return;
+                }
+                recoverPending(streamKey);
+                // 分区前的消息队列已经消费完,不再读取
+                if (streamKey.equals(seckillOrderStreams.legacyKey()) && drained(streamKey)) {
+                    assignedKeys.remove(streamKey);
+                    streamKeys.remove(streamKey);
+                    offsets = offsetsOf(streamKeys);
+                    if (leased) {
+                        releaseLease(streamKey);
+                    }
+                    log.info("消费者{}已处理完分区前的消息队列{}", consumerName, streamKey);
+                }
+            }
+            if (now >= nextCleanupTime) {
+                nextCleanupTime = now + claimMinIdleMs;
+                streamKeys.forEach(this::deleteIdleConsumers);
+            }
+        }
+
+        /**
+         * 删除空闲超过deleteIdleConsumer且没有pending消息的消费者
+         * 正在运行的消费者每次阻塞读取都会刷新空闲时间,不会被删除; 有pending消息的消费者由recoverPending接管后再删除
+         * xinfo consumers stream.orders g1 / xgroup delconsumer stream.orders g1 consumer
+         */
+        private void deleteIdleConsumers(String streamKey) {
+            try {
+                stringRedisTemplate.opsForStream().consumers(streamKey, GROUP_NAME).stream()
+                        .filter(c -> c.pendingCount() == 0 && c.idleTimeMs() > deleteIdleConsumerMs)
+                        .forEach(c -> {
+                            stringRedisTemplate.opsForStream().deleteConsumer(streamKey, Consumer.from(GROUP_NAME, c.consumerName()));
+                            log.info("删除空闲的消费者{}: {}", c.consumerName(), streamKey);
+                        });
+            } catch (Exception e) {
+                log.warn("删除空闲消费者失败, 消息队列: {}", streamKey, e);
+            }
+        }
+
+        /**
+         * 消息队列中的消息都已投递给消费者组,并且都已确认
+         */
+        private boolean drained(String streamKey) {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, GROUP_NAME);
+            if (summary == null || summary.getTotalPendingMessages() > 0) {
+                return false;
+            }
+            String lastId = stringRedisTemplate.opsForStream().info(streamKey).lastGeneratedId();
+            return stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                    .anyMatch(group -> GROUP_NAME.equals(group.groupName()) && lastId.equals(group.lastDeliveredId()));
+        }
+
+        private void recoverPending(String streamKey) {
+            // 1. xpending stream.orders g1 cursor + count, 从上一页的最后一条消息开始,跳过这条已检查过的消息
+            String cursor = pendingCursors.get(streamKey);
+            Range<String> range = cursor == null ? Range.unbounded() : Range.rightUnbounded(Range.Bound.inclusive(cursor));
+            int count = cursor == null ? claimCount : claimCount + 1;
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, GROUP_NAME, range, count);
+            // 不满一页说明已经检查到最后,下次从头开始
+            if (pendingMessages.size() < count) {
+                pendingCursors.remove(streamKey);
+            } else {
+                pendingCursors.put(streamKey, pendingMessages.get(pendingMessages.size() - 1).getIdAsString());
+            }
+            for (PendingMessage message : pendingMessages) {
+                // 收到停止信号后不再接管剩余的消息,已接管的消息由releasePending释放
+                if (!running) {
+                    break;
+                }
+                if (message.getIdAsString().equals(cursor)) {
+                    continue;
+                }
+                // 2. 判断消息是否到了可以重试的时间
+                boolean own = consumerName.equals(message.getConsumerName());
+                long deliveries = message.getTotalDeliveryCount();
+                long minIdle = own ? backoffMs(deliveries) : claimMinIdleMs;
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < minIdle) {
+                    continue;
+                }
+
+                // 3. xclaim stream.orders g1 consumer min-idle-time id
+                // 带min-idle-time参数,多个消费者同时接管同一条消息时只有一个能成功,同时投递次数加一
+                List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                        ((StringRedisConnection) connection).xClaim(streamKey, GROUP_NAME, consumerName,
+                                Duration.ofMillis(minIdle), message.getId()));
+                if (claimed == null || claimed.isEmpty()) {
+                    continue;
+                }
+
+                // 4. 投递次数达到上限,转入死信队列
+                if (deliveries >= maxAttempts) {
+                    deadLetter(claimed.get(0), deliveries);
+                    continue;
+                }
+
+                // 5. 逐条重试,有问题的消息不会拖累同批次的其他消息
+                if (!own) {
+                    log.info("消费者{}接管了{}的订单消息{}", consumerName, message.getConsumerName(), message.getIdAsString());
+                }
+                handleRecordsSafely(claimed);
+            }
+        }
+    }
+
+    /**
+     * 第n次投递失败后,至少要等待 retryBackoff * 2^(n-1) 毫秒再重试,最多等待retryMaxBackoff毫秒
+     */
+    private long backoffMs(long deliveries) {
+        long shift = Math.min(Math.max(deliveries - 1, 0), 20);
+        return Math.min(retryBackoffMs << shift, retryMaxBackoffMs);
+    }
+
+    /**
+     * 将消息转入死信队列 stream.orders.dlq 并ack
+     * 保留原消息的全部字段,额外记录原消息id、投递次数和转入时间,便于排查后重放
+     */
+    private void deadLetter(StringRecord record, long deliveries) {
+        Map<String, String> values = new HashMap<>(record.getValue());
+        values.put("dlq.sourceStream", record.getStream());
+        values.put("dlq.sourceId", record.getId().getValue());
+        values.put("dlq.deliveries", String.valueOf(deliveries));
+        values.put("dlq.deadTime", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, values);
+        stringRedisTemplate.opsForStream().acknowledge(record.getStream(), GROUP_NAME, record.getId());
+        seckillOrderMetrics.recordDeadLetter();
+        // 订单最终没能落库,记录为下单失败. 重放死信消息落库后会再更新为成功
+        seckillOrderStatus.finish(Collections.emptyList(),
+                Collections.singletonList(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true)));
+        log.error("订单消息{}投递{}次仍处理失败,已转入死信队列: {}", record.getId(), deliveries, record.getValue());
+    }
+
+    private boolean addLockBeforeCreateVoucherOrder(VoucherOrder order) {
+        // 此处已经是线程池中的线程了,无法通过UserHolder获取UserId,注意!!!
+        // 1. 获取userId
+        Long userId = order.getUserId();
+
+        // 2. 创建锁对象,并获取锁
+        ILock lock = new HybridLock("order:" + userId, stringRedisTemplate);
+        boolean gotLock = lock.tryLock();
+
+        // redis层已判断用户是否购买过该商品,多个消费者并发时获取失败说明同一用户的其他订单正在落库
+        // 抛出异常让消息留在pendingList中稍后重试,而不是直接ack丢掉订单
+        if (!gotLock) {
+            throw new IllegalStateException("获取用户锁失败, orderId: " + order.getId());
+        }
+
+        // 3. 调用创建VoucherOrder的函数,在try-finally块中保证锁释放
+        try {
+            return voucherOrderService.createVoucherOrderWithOrderObject(order);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
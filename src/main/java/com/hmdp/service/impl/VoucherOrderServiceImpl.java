@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -9,27 +8,35 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillOrderStreams;
+import com.hmdp.utils.SeckillPathSigner;
+import com.hmdp.utils.SeckillSoldOutRegistry;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.lock.HybridLock;
+import com.hmdp.utils.lock.ILock;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -53,166 +60,304 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private RedisIdWorker redisIdWorker;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Resource
+    private SeckillPathSigner seckillPathSigner;
+
+    @Resource
+    private SeckillOrderStreams seckillOrderStreams;
+
+    // 订单状态记录在排队期间的过期时间(秒),消费者积压超过这个时间查询会得到"订单不存在"
+    @Value("${seckill.order.status.queued-ttl-seconds:86400}")
+    private long queuedStatusTtlSeconds;
 
     // 提前将lua脚本加载为RedisScript,不然每次都加在会有很多io操作消耗资源
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    // 脚本返回 {状态码} 或 {0, 订单id}
+    private static final DefaultRedisScript<List<Object>> SECKILL_SCRIPT;
     static {
         // 类加载时将lua脚本加载进来
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        @SuppressWarnings("unchecked")
+        Class<List<Object>> resultType = (Class<List<Object>>) (Class<?>) List.class;
+        SECKILL_SCRIPT.setResultType(resultType);
     }
 
-    // 业务线程的代理对象,使得SECKILL_ORDER_EXECUTOR中的线程可以获取并调用createVoucherOrder,保证事务不失效
-    private IVoucherOrderService proxy;
+    /**
+     * 基于原CreateVoucherOrder改造
+     * 不需要再创建VoucherOrder对象了(已经创建好了)
+     * 直接根据传入的VoucherOrder对象更新数据库记录即可
+     * @param order
+     * @return true 代表订单已落库(包括同一条消息被重复投递、订单此前已落库的情况)
+     */
+    @Transactional
+    public boolean createVoucherOrderWithOrderObject(VoucherOrder order) {
+        // 5. 一人一单
+        Long userId = order.getUserId();
+        // 5.1 查询订单
+        // 已取消的订单不占用购买资格 (订单状态 4：已取消)
+        VoucherOrder existing = query().select("id")
+                .eq("user_id", userId).eq("voucher_id", order.getVoucherId()).ne("status", 4).one();
+        // 5.2 判断是否已存在
+        // 出现概率较小,redis层已判断. 订单id相同说明是同一条消息被重复投递
+        if (existing != null) {
+            if (existing.getId().equals(order.getId())) {
+                return true;
+            }
+            log.error("Redis层错误导致重复查询数据库,用户已经购买过该商品");
+            return false;
+        }
+
+        // 6. 扣减库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", order.getVoucherId()).gt("stock", 0).update();
 
-    // 创建一个单线程的线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+        // 出现概率较小,redis层已判断
+        if (!success) {
+            log.error("数据库更新出错,扣减商品库存失败");
+            return false;
+        }
 
-    // 通过PostConstruct注解,类一加载就执行初始化,将异步更新数据库的任务提交至线程池中
-    @PostConstruct
-    private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 7 订单写入数据库
+        save(order);
+        return true;
     }
 
     /**
-     * 将从Redis Stream消息队列取任务
-     * 并提交至线程池异步执行数据库更新操作
+     * 批量创建订单,批量消费模式下使用
+     * 一次查询过滤重复订单,每个优惠券只扣减一次库存,最后一条多行INSERT写入全部订单
+     * @param orders 同一批次的订单
+     * @return 已落库的订单
      */
-    private class VoucherOrderHandler implements Runnable {
-        // Redis Stream 消息队列名称
-        private final String RedisStreamName = "stream.orders";
-        private final String StreamGroupName = "g1";
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    // 1. 获取消息队列的信息 xreadgroup group g1 c1 count 1 blocking 2000 streams stream.orders >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from(StreamGroupName, "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(RedisStreamName, ReadOffset.lastConsumed())
-                    );
-
-                    // 2. 判断消息是否获取成功
-                    // 2.1 获取失败就下一次循环
-                    if (list == null || list.isEmpty()) {
-                        continue;
-                    }
-
-                    // 3. 解析消息
-                    MapRecord<String, Object, Object> entries = list.get(0);
-                    Map<Object, Object> values = entries.getValue();
-                    VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-
-                    // 4. 创建订单
-                    addRedissonLockBeforeCreateVoucherOrder(order);
-
-                    // 5. ack确认 sack stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(
-                            RedisStreamName, StreamGroupName, entries.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常: {}", e);
-                    handlePendingList();
+    @Transactional
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> orders) {
+        // 1. 一人一单: 一次查询出本批次中已经存在的订单
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder order : orders) {
+            userIds.add(order.getUserId());
+            voucherIds.add(order.getVoucherId());
+        }
+        Map<String, Long> orderedKeys = new HashMap<>();
+        query().select("id", "user_id", "voucher_id").in("user_id", userIds).in("voucher_id", voucherIds).ne("status", 4).list()
+                .forEach(o -> orderedKeys.put(o.getUserId() + ":" + o.getVoucherId(), o.getId()));
+
+        // 2. 按voucherId分组,同时过滤掉重复订单
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = new LinkedHashMap<>();
+        List<VoucherOrder> persisted = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            Long existingId = orderedKeys.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order.getId());
+            if (existingId != null) {
+                // 订单id相同说明是同一条消息被重复投递,订单此前已落库
+                if (existingId.equals(order.getId())) {
+                    persisted.add(order);
+                    continue;
                 }
+                // 出现概率较小,redis层已判断
+                log.error("Redis层错误导致重复查询数据库,用户已经购买过该商品, orderId: {}", order.getId());
+                continue;
             }
+            ordersOfVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
         }
 
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1. 获取消息队列的pendingList的信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from(StreamGroupName, "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(RedisStreamName, ReadOffset.from("0"))
-                    );
-
-                    // 2. 判断消息是否获取成功
-                    // 2.1 获取失败就停止,说明pendingList已经全部处理完了
-                    if (list == null || list.isEmpty()) {
-                        break;
-                    }
-
-                    // 3. 解析消息
-                    MapRecord<String, Object, Object> entries = list.get(0);
-                    Map<Object, Object> values = entries.getValue();
-                    VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-
-                    // 4. 创建订单
-                    addRedissonLockBeforeCreateVoucherOrder(order);
-
-                    // 5. ack确认 sack stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(
-                            RedisStreamName, StreamGroupName, entries.getId());
-                } catch (Exception e) {
-                    log.error("处理pendingList订单异常: {}", e);
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
-                    }
+        // 3. 每个优惠券只扣减一次库存 stock = stock - k
+        List<VoucherOrder> toSave = new ArrayList<>(orders.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            List<VoucherOrder> voucherOrders = entry.getValue();
+            int count = voucherOrders.size();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", entry.getKey()).ge("stock", count).update();
+            if (success) {
+                toSave.addAll(voucherOrders);
+                continue;
+            }
+            // 出现概率较小,redis层已判断. 库存不够整批扣减时退化为逐单扣减,尽量保住能成交的订单
+            for (VoucherOrder order : voucherOrders) {
+                boolean ok = seckillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", entry.getKey()).gt("stock", 0).update();
+                if (!ok) {
+                    log.error("数据库更新出错,扣减商品库存失败, orderId: {}", order.getId());
+                    continue;
                 }
+                toSave.add(order);
             }
         }
-    }
-
-    private void addRedissonLockBeforeCreateVoucherOrder(VoucherOrder order) {
-        // 此处已经是线程池中的线程了,无法通过UserHolder获取UserId,注意!!!
-        // 1. 获取userId
-        Long userId = order.getUserId();
-
-        // 2. 创建锁对象,并获取锁
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        boolean gotLock = lock.tryLock();
-
-        // 出现概率较小,redis层已判断用户是否购买过该商品
-        if (!gotLock) {
-            log.error("不允许重复下单");
-            return;
-        }
 
-        // 3. 调用创建VoucherOrder的函数,在try-finally块中保证锁释放
-        try {
-            proxy.createVoucherOrderWithOrderObject(order);
-        } finally {
-            lock.unlock();
+        // 4. 一条多行INSERT写入本批次全部订单
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
         }
+        persisted.addAll(toSave);
+        return persisted;
     }
 
     /**
-     * 基于原CreateVoucherOrder改造
-     * 不需要再创建VoucherOrder对象了(已经创建好了)
-     * 直接根据传入的VoucherOrder对象更新数据库记录即可
+     * 基于唯一索引幂等地创建订单
+     * tb_voucher_order 上有 (user_id, voucher_id, active) 唯一索引,已取消订单的active为NULL不参与唯一约束,
+     * 重复订单和重复投递的消息都会被 INSERT IGNORE 忽略
+     * 不需要分布式锁和事先的count查询,每个订单只有一条INSERT和一条UPDATE
      * @param order
+     * @return true 代表订单已落库(包括同一条消息被重复投递、订单此前已落库的情况)
      */
     @Transactional
-    public void createVoucherOrderWithOrderObject(VoucherOrder order) {
-        // 5. 一人一单
-        Long userId = order.getUserId();
-        // 5.1 查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id", order.getVoucherId()).count();
-        // 5.2 判断是否已存在
-        // 出现概率较小,redis层已判断
-        if (count > 0) {
-            log.error("Redis层错误导致重复查询数据库,用户已经购买过该商品");
-            return;
+    public boolean createVoucherOrderIdempotent(VoucherOrder order) {
+        // 1. 订单写入数据库,重复订单插入0行
+        int inserted = getBaseMapper().insertIgnoreBatch(Collections.singletonList(order));
+        // 出现概率较小,redis层已判断,或者是同一条消息被重复投递
+        if (inserted == 0) {
+            log.error("订单已存在,忽略重复订单, orderId: {}", order.getId());
+            return getById(order.getId()) != null;
         }
 
-        // 6. 扣减库存
+        // 2. 扣减库存
         boolean success = seckillVoucherService.update()
                 .setSql("stock = stock - 1")
                 .eq("voucher_id", order.getVoucherId()).gt("stock", 0).update();
 
-        // 出现概率较小,redis层已判断
+        // 出现概率较小,redis层已判断. 回滚已插入的订单
         if (!success) {
-            log.error("数据库更新出错,扣减商品库存失败");
-            return;
+            log.error("数据库更新出错,扣减商品库存失败, orderId: {}", order.getId());
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return false;
         }
+        return true;
+    }
 
-        // 7 订单写入数据库
-        save(order);
+    /**
+     * 基于唯一索引幂等地批量创建订单
+     * 每个优惠券一条多行 INSERT IGNORE,按实际插入的行数扣减一次库存
+     * @param orders 同一批次的订单
+     * @return 已落库的订单
+     */
+    @Transactional
+    public List<VoucherOrder> createVoucherOrdersIdempotent(List<VoucherOrder> orders) {
+        // 1. 按voucherId分组
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = new LinkedHashMap<>();
+        for (VoucherOrder order : orders) {
+            ordersOfVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+
+        List<VoucherOrder> persisted = new ArrayList<>(orders.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            // 2. 订单写入数据库,重复订单被忽略
+            List<VoucherOrder> voucherOrders = entry.getValue();
+            int inserted = getBaseMapper().insertIgnoreBatch(voucherOrders);
+            if (inserted < voucherOrders.size()) {
+                // 出现概率较小. 被忽略的订单中,id已存在的是重复投递的消息,其余是同一用户的重复订单
+                log.error("忽略了{}个重复订单, voucherId: {}", voucherOrders.size() - inserted, entry.getKey());
+                Set<Long> ids = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+                Set<Long> savedIds = query().select("id").in("id", ids).list()
+                        .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+                voucherOrders.stream().filter(o -> savedIds.contains(o.getId())).forEach(persisted::add);
+            } else {
+                persisted.addAll(voucherOrders);
+            }
+            if (inserted == 0) {
+                continue;
+            }
+
+            // 3. 按实际插入的行数扣减库存 stock = stock - k
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", entry.getKey()).ge("stock", inserted).update();
+
+            // 出现概率较小,说明数据库库存与Redis不一致. 整批回滚,消息留在pendingList中重试
+            if (!success) {
+                throw new IllegalStateException("数据库库存不足以扣减, voucherId: " + entry.getKey() + ", count: " + inserted);
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * 取消超时未支付的订单
+     * 先锁定仍未支付的订单,避免与支付并发,再用一条UPDATE批量取消,每个优惠券只归还一次库存
+     * @param orderIds 已到支付截止时间的订单id
+     * @return 实际被取消的订单
+     */
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds) {
+        // 1. 查询并锁定仍未支付的订单 (订单状态 1：未支付)
+        List<VoucherOrder> unpaid = query().select("id", "user_id", "voucher_id")
+                .in("id", orderIds).eq("status", 1).last("for update").list();
+        if (unpaid.isEmpty()) {
+            return unpaid;
+        }
+
+        // 2. 批量取消 (订单状态 4：已取消)
+        List<Long> unpaidIds = new ArrayList<>(unpaid.size());
+        Map<Long, Integer> countOfVoucher = new HashMap<>();
+        for (VoucherOrder order : unpaid) {
+            unpaidIds.add(order.getId());
+            countOfVoucher.merge(order.getVoucherId(), 1, Integer::sum);
+        }
+        update().set("status", 4).in("id", unpaidIds).eq("status", 1).update();
+
+        // 3. 归还库存 stock = stock + k
+        countOfVoucher.forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId).update());
+        return unpaid;
+    }
+
+    /**
+     * 查询死信队列 xrange stream.orders.dlq - + count n
+     * @param count 最多返回的条数
+     * @return 死信消息列表,包含消息id、原订单字段和dlq.*字段
+     */
+    public Result queryDeadLetters(Integer count) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ, Range.unbounded(), RedisZSetCommands.Limit.limit().count(count));
+        List<Map<Object, Object>> deadLetters = new ArrayList<>();
+        if (records != null) {
+            for (MapRecord<String, Object, Object> record : records) {
+                Map<Object, Object> deadLetter = new LinkedHashMap<>();
+                deadLetter.put("recordId", record.getId().getValue());
+                deadLetter.putAll(record.getValue());
+                deadLetters.add(deadLetter);
+            }
+        }
+        return Result.ok(deadLetters);
+    }
+
+    /**
+     * 重放死信消息
+     * 去掉dlq.*字段后重新投递到优惠券所在分区的订单消息队列,由消费者重新创建订单
+     * @param recordId 死信消息id
+     * @return 重新投递后的消息id
+     */
+    public Result replayDeadLetter(String recordId) {
+        // 1. 查询死信消息 xrange stream.orders.dlq id id
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ, Range.closed(recordId, recordId));
+        if (records == null || records.isEmpty()) {
+            return Result.fail("死信消息不存在");
+        }
+
+        // 2. 还原原订单字段
+        Map<Object, Object> values = new HashMap<>();
+        records.get(0).getValue().forEach((k, v) -> {
+            if (!k.toString().startsWith("dlq.")) {
+                values.put(k, v);
+            }
+        });
+
+        // 3. 重新投递并从死信队列中删除
+        String streamKey = seckillOrderStreams.keyOf(Long.valueOf(values.get("voucherId").toString()));
+        RecordId newId = stringRedisTemplate.opsForStream().add(streamKey, values);
+        stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_DLQ, recordId);
+        log.info("死信消息{}已重新投递为{}", recordId, newId);
+        return Result.ok(newId == null ? null : newId.getValue());
     }
 
     /**
@@ -220,33 +365,116 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * 基于lua脚本和redis缓存快速判断用户购买资格
      * 异步执行数据库的更新操作，优化响应速度
      * @param voucherId
+     * @param token 排队放行时发放的购买令牌,开启排队的秒杀券必须携带
      * @return
      */
-    public Result seckillVoucher(Long voucherId) {
+    public Result seckillVoucher(Long voucherId, String token) {
+        // 0. 本地已标记售罄直接返回,不访问Redis
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+
         Long userId = UserHolder.getUser().getId();
         // 1. 执行lua脚本,得到结果
-        long orderId = redisIdWorker.nextId("order");
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        // 有购买资格时脚本才自增 icr:order:{date} 并拼接订单id,被拒绝的请求只有这一次Redis往返,也不消耗序列号
+        // 订单id使用雪花算法时在本地预先生成,脚本直接使用
+        LocalDateTime now = LocalDateTime.now();
+        String presetOrderId = redisIdWorker.isSnowflake("order") ? String.valueOf(redisIdWorker.nextId("order")) : "";
+        List<Object> result = seckill(voucherId, userId, now, token, presetOrderId, false);
+        int code = ((Long) result.get(0)).intValue();
+        // 1.1 布隆过滤器命中只代表可能已购买,查询数据库确认. 没有订单说明是误判,跳过布隆过滤器重新执行
+        if (code == 6) {
+            if (query().eq("user_id", userId).eq("voucher_id", voucherId).ne("status", 4).count() > 0) {
+                return Result.fail("同一用户不可重复下单");
+            }
+            result = seckill(voucherId, userId, now, token, presetOrderId, true);
+            code = ((Long) result.get(0)).intValue();
+        }
 
         // 2. 如果返回不为0, 说明没有购买资格,返回errorMsg
-        if (result.intValue() != 0) {
-            if (result.intValue() == 1) {
-                // 2.1 结果为1说明库存不足
+        switch (code) {
+            case 0:
+                break;
+            case 1:
+                // 2.1 结果为1说明库存不足,标记售罄并通知其他实例
+                seckillSoldOutRegistry.markSoldOut(voucherId);
                 return Result.fail("库存不足");
-            } else {
+            case 2:
                 // 2.2 结果为2说明重复下单
                 return Result.fail("同一用户不可重复下单");
-            }
+            case 3:
+                // 2.3 结果为3说明秒杀尚未开始
+                return Result.fail("秒杀活动尚未开始");
+            case 4:
+                // 2.4 结果为4说明秒杀已经结束
+                return Result.fail("秒杀活动已经结束");
+            default:
+                // 2.5 结果为5说明开启了排队,但没有有效的购买令牌
+                return Result.fail("请先排队获取购买资格");
         }
+        long orderId = Long.parseLong((String) result.get(1));
 
-        // 3. 获得代理对象,防止子线程调用createVoucherOrder时事务失效
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
-        // 4. 返回订单id,便于后续完成支付的逻辑
+        // 3. 返回订单id,便于后续完成支付的逻辑
         return Result.ok(orderId);
     }
 
+    /**
+     * 执行秒杀脚本
+     * @param recheck 已在数据库确认用户没有订单,布隆过滤器命中时也放行
+     * @return {状态码} 或 {0, 订单id}
+     */
+    private List<Object> seckill(Long voucherId, Long userId, LocalDateTime now, String token, String presetOrderId, boolean recheck) {
+        return stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.singletonList(SECKILL_STOCK_KEY + voucherId),
+                voucherId.toString(), userId.toString(),
+                String.valueOf(redisIdWorker.timestampBits(now)), redisIdWorker.counterKey("order", now),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(queuedStatusTtlSeconds),
+                token == null ? "" : token, String.valueOf(seckillOrderStreams.partitions()), presetOrderId,
+                recheck ? "1" : "0");
+    }
+
+    /**
+     * 获取秒杀路径
+     * @param voucherId 优惠券id
+     * @return 秒杀路径
+     */
+    public Result getSeckillPath(Long voucherId) {
+        String path = seckillPathSigner.issue(voucherId, UserHolder.getUser().getId());
+        if (path == null) {
+            return Result.fail("秒杀活动尚未开始");
+        }
+        return Result.ok(path);
+    }
+
+    /**
+     * 进入秒杀排队队列
+     * @param voucherId 优惠券id
+     * @return 已放行时返回购买令牌,排队中返回排队位置
+     */
+    public Result enterWaitingRoom(Long voucherId) {
+        // 已售罄的秒杀券不再排队
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        return seckillWaitingRoom.enter(voucherId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 查询秒杀订单的处理状态
+     * 只读 seckill:order:status:{orderId},轮询压力不会落到数据库
+     * @param orderId 订单id
+     * @return QUEUED / PERSISTED / FAILED
+     */
+    public Result queryOrderStatus(Long orderId) {
+        // 1. 查询订单状态记录
+        Map<Object, Object> status = seckillOrderStatus.get(orderId);
+        // 2. 只能查询自己的订单,不存在和不属于当前用户的订单返回同样的结果
+        Long userId = UserHolder.getUser().getId();
+        if (status.isEmpty() || !userId.toString().equals(status.get("userId"))) {
+            return Result.fail("订单不存在或已过期");
+        }
+        return Result.ok(status.get("status"));
+    }
+
 
 // 这部分逻辑交给LUA执行,缓存库存和已下单用户id至Redis,优化秒杀的判断速度,同时配合异步完成完整的秒杀优化
     /**
@@ -280,11 +508,9 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         Long userId = UserHolder.getUser().getId();
         // 尝试获取分布式锁,获取成功就继续创建订单,否则就返回errorMsg,不进行重试,因为此处的并发逻辑是同一用户的并发请求,是非法的
-//        SimpleRedisLock lock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        RLock lock = redissonClient.getLock("lock:order:" + userId); // [基于redisson]
+        ILock lock = new HybridLock("order:" + userId, stringRedisTemplate);
         // 尝试获取锁
-        boolean gotLock = lock.tryLock(); // 默认不重试, 超时时间30秒 [基于redisson]
-//        boolean gotLock = lock.tryLock(1200); // 测试的时候时间先暂时设置的久一点
+        boolean gotLock = lock.tryLock(); // 默认不重试, 看门狗自动续期
         if (!gotLock) {
             // 获取锁失败直接返回,不重试,同一用户的并发请求是非法的
             return Result.fail("不允许重复下单");
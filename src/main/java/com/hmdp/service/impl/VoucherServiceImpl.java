@@ -8,12 +8,20 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillDedupe;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -32,6 +40,26 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private SeckillRateLimiter seckillRateLimiter;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Resource
+    private SeckillReconciler seckillReconciler;
+
+    // 默认的已购用户存储方式 set/bitmap/bloom,可以在新增秒杀券时单独指定
+    @Value("${seckill.dedupe.default-mode:set}")
+    private String defaultDedupeMode;
+
+    // 布隆过滤器的误判率
+    @Value("${seckill.dedupe.bloom-fpp:0.001}")
+    private double bloomFpp;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -52,7 +80,54 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 存入Redis中
+        // 存入Redis中,秒杀开始和结束时间存入 seckill:voucher:{voucherId},由lua脚本判断秒杀时间窗口
+        Map<String, String> seckillInfo = new HashMap<>();
+        seckillInfo.put("begin", String.valueOf(toEpochMilli(voucher.getBeginTime())));
+        seckillInfo.put("end", String.valueOf(toEpochMilli(voucher.getEndTime())));
+        saveDedupeMode(voucher, seckillInfo);
         stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_VOUCHER_KEY + voucher.getId(), seckillInfo);
+        // 清除可能残留的售罄标记
+        seckillSoldOutRegistry.restock(voucher.getId());
+    }
+
+    @Override
+    public void setSeckillRateLimit(Long voucherId, Integer localRate, Integer globalRate) {
+        seckillRateLimiter.setRate(voucherId, localRate, globalRate);
+    }
+
+    @Override
+    public void setSeckillWaitingRoom(Long voucherId, Integer rate) {
+        seckillWaitingRoom.setRate(voucherId, rate);
+    }
+
+    @Override
+    public Result queryReconcileReports() {
+        return Result.ok(seckillReconciler.reports());
+    }
+
+    /**
+     * 记录已购用户的存储方式,默认的set不需要记录
+     * 布隆过滤器按库存的两倍估算插入数,给取消订单后再次售出的库存留出余量
+     */
+    private void saveDedupeMode(Voucher voucher, Map<String, String> seckillInfo) {
+        String mode = voucher.getDedupeMode() == null ? defaultDedupeMode : voucher.getDedupeMode();
+        if (!SeckillDedupe.isValid(mode)) {
+            throw new IllegalArgumentException("不支持的已购用户存储方式: " + mode);
+        }
+        if (SeckillDedupe.SET.equals(mode)) {
+            return;
+        }
+        seckillInfo.put("dedupe", mode);
+        if (SeckillDedupe.BLOOM.equals(mode)) {
+            long n = Math.max(voucher.getStock(), 1) * 2L;
+            long bits = SeckillDedupe.bloomBits(n, bloomFpp);
+            seckillInfo.put("bloomBits", String.valueOf(bits));
+            seckillInfo.put("bloomHashes", String.valueOf(SeckillDedupe.bloomHashes(n, bits)));
+        }
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
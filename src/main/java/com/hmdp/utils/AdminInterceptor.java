@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 运维接口权限拦截器
+ * 登陆拦截器之后执行,只有配置的管理员用户才能访问,没有配置管理员时所有用户都无法访问
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private static final String FORBIDDEN_RESULT = JSONUtil.toJsonStr(Result.fail("没有权限"));
+
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Set<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1. 登录拦截器已经保证用户存在,判断是否为管理员
+        if (adminUserIds.contains(UserHolder.getUser().getId())) {
+            return true;
+        }
+
+        // 2. 不是管理员,直接返回
+        response.setStatus(403);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(FORBIDDEN_RESULT);
+        return false;
+    }
+}
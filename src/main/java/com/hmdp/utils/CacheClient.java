@@ -5,6 +5,8 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
+import com.hmdp.utils.lock.HybridLock;
+import com.hmdp.utils.lock.ILock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
@@ -111,8 +113,10 @@ public class CacheClient {
 
         // 5. 已过期,进行缓存重建
         // 5.1 尝试获取互斥锁,注意只尝试一次
+        //     两级锁: 同一实例内只有一个线程去竞争Redis锁,其余线程在本地直接失败,不访问Redis
         String lockKey = mutexKeyPrefix + id;
-        boolean gotLock = tryLock(lockKey);
+        ILock lock = new HybridLock(lockKey, mutex(lockKey), 0);
+        boolean gotLock = lock.tryLock(LOCK_SHOP_TTL);
         if (gotLock) {
             // 5.2 获取成功,开启独立线程查数据库后返回逻辑过期的热点key数据
             // 实现缓存重建
@@ -127,7 +131,7 @@ public class CacheClient {
                     throw new RuntimeException(e);
                 } finally {
                     // 释放锁
-                    unLock(lockKey);
+                    lock.unlock();
                 }
             });
         }
@@ -136,12 +140,31 @@ public class CacheClient {
         return r;
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unLock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 缓存重建的Redis互斥锁 setnx key 1,不区分线程,可以在重建线程中释放
+     */
+    private ILock mutex(String key) {
+        return new ILock() {
+            @Override
+            public boolean tryLock(long timeoutSec) {
+                Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", timeoutSec, TimeUnit.SECONDS);
+                return BooleanUtil.isTrue(flag);
+            }
+
+            @Override
+            public boolean tryLock() {
+                return tryLock(LOCK_SHOP_TTL);
+            }
+
+            @Override
+            public long fencingToken() {
+                return -1;
+            }
+
+            @Override
+            public void unlock() {
+                stringRedisTemplate.delete(key);
+            }
+        };
     }
 }
@@ -19,6 +19,21 @@ public class RedisConstants {
     public static final String EMPTY_STRING = "";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_DLQ = "stream.orders.dlq";
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:order:status:";
+    public static final String SECKILL_ORDER_ARCHIVE_KEY = "seckill:archive:";
+    public static final String SECKILL_ORDER_TIMEOUT_KEY = "seckill:order-timeout";
+    public static final String SECKILL_PARTITION_OWNER_KEY = "seckill:partition:owner:";
+    public static final String SECKILL_QUEUE_KEY = "seckill:queue:";
+    public static final String SECKILL_QUEUE_VOUCHERS_KEY = "seckill:queue:vouchers";
+    public static final String SECKILL_TOKEN_KEY = "seckill:token:";
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String SECKILL_LIMIT_BUCKET_KEY = "seckill:limit:bucket:";
+    public static final String ID_WORKER_LEASE_KEY = "id:worker:";
+    public static final String ID_WORKER_TS_KEY = "id:worker:ts";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
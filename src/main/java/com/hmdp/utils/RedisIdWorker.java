@@ -1,14 +1,28 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 @Component
+@Slf4j
 public class RedisIdWorker {
 
     /**
@@ -21,26 +35,234 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    // 是否开启号段模式: 每次incrby租用一段序列号,在内存中分配
+    @Value("${id.segment.enabled:false}")
+    private boolean segmentEnabled;
+
+    // 每次租用的序列号个数
+    @Value("${id.segment.step:1000}")
+    private int segmentStep;
+
+    // 当前号段用掉这个比例后异步预取下一个号段
+    @Value("${id.segment.prefetch-ratio:0.8}")
+    private double prefetchRatio;
+
+    // 使用本地雪花算法生成id的业务前缀,多个用逗号分隔. 雪花id始终大于本类生成的id,可以随时切换,不会产生重复id
+    @Value("${id.snowflake.prefixes:}")
+    private Set<String> snowflakePrefixes;
+
+    @Resource
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    // keyPrefix -> 双缓冲号段
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    // 号段模式使用的时钟(毫秒),测试跨天时替换
+    private LongSupplier clock = System::currentTimeMillis;
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * @param keyPrefix 取决于业务的前缀
      * @return 返回生成的uuid
      */
     public long nextId(String keyPrefix) {
+        if (isSnowflake(keyPrefix)) {
+            return snowflakeIdWorker.nextId();
+        }
+        if (segmentEnabled) {
+            return nextSegmentId(keyPrefix);
+        }
+
         // 1. 生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
         // 2. 生成序列号
         // 2.1 获取当前日期 精确到天 拼接到key
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
         // 2.2 得到自增的序列号
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, now));
 
         // 3. 拼接并返回
-        return timestamp << COUNT_BITS | count;
+        return timestampBits(now) | count;
+    }
+
+    /**
+     * 该业务前缀是否使用本地雪花算法生成id,是则不能由lua脚本自增序列号拼接id,需要预先生成
+     * @param keyPrefix 取决于业务的前缀
+     */
+    public boolean isSnowflake(String keyPrefix) {
+        return snowflakePrefixes.contains(keyPrefix);
+    }
+
+    /**
+     * 时间戳部分,已经左移到高位,与序列号按位或即为完整id
+     * 供lua脚本在判断购买资格之后再自增序列号、拼接id使用
+     * @param now 当前时间
+     * @return 左移后的时间戳
+     */
+    public long timestampBits(LocalDateTime now) {
+        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        return timestamp << COUNT_BITS;
+    }
+
+    /**
+     * 序列号的key,每天一个 icr:{keyPrefix}:yyyy:MM:dd
+     * @param keyPrefix 取决于业务的前缀
+     * @param now 当前时间
+     * @return 序列号的key
+     */
+    public String counterKey(String keyPrefix, LocalDateTime now) {
+        String date = now.format(DATE_FORMATTER);
+        return "icr:" + keyPrefix + ":" + date;
+    }
+
+    /**
+     * 号段模式(Leaf-segment)
+     * 每个实例用 incrby icr:{keyPrefix}:{date} step 租用一段序列号,与lua脚本的incr共用同一个计数器,分配到的序列号互不重复
+     * 当前号段用掉prefetchRatio后异步预取下一个号段,正常情况下nextId只是一次内存中的自增,没有对象分配
+     * 号段属于租用它的那一天,跨天时丢弃旧号段,避免与新一天的序列号重复
+     */
+    private long nextSegmentId(String keyPrefix) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        long nowMillis = clock.getAsLong();
+        while (true) {
+            Day day = buffer.day;
+            Segment segment = buffer.current;
+            // 1. 跨天或者还没有号段,同步切换到当天的号段
+            if (day == null || nowMillis >= day.endMillis || segment == null) {
+                switchDay(buffer, nowMillis);
+                continue;
+            }
+
+            // 2. 在当前号段内分配
+            long seq = segment.cursor.getAndIncrement();
+            if (seq <= segment.max) {
+                // 2.1 用量达到阈值后异步预取下一个号段
+                if (seq >= segment.prefetchAt && buffer.next == null && buffer.loading.compareAndSet(false, true)) {
+                    prefetch(buffer, day);
+                }
+                // 2.2 时间戳与 timestampBits 一致: 本地时间按UTC换算的秒数
+                long timestamp = nowMillis / 1000 + day.offsetSeconds - BEGIN_TIMESTAMP;
+                return timestamp << COUNT_BITS | seq;
+            }
+
+            // 3. 当前号段用完,切换到预取的号段,预取还没完成时同步租用
+            // 预取在同步租用之前租到、之后才完成时,预取的号段比当前号段小,丢弃它,保证id递增
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    Segment next = buffer.next;
+                    buffer.next = null;
+                    buffer.current = next != null && next.day == day && next.min > segment.max
+                            ? next : lease(buffer.keyPrefix, day);
+                }
+            }
+        }
+    }
+
+    private void switchDay(SegmentBuffer buffer, long nowMillis) {
+        synchronized (buffer) {
+            Day day = buffer.day;
+            if (day != null && nowMillis < day.endMillis && buffer.current != null) {
+                return;
+            }
+            if (day == null || nowMillis >= day.endMillis) {
+                day = Day.of(buffer.keyPrefix, nowMillis);
+            }
+            Segment segment = lease(buffer.keyPrefix, day);
+            buffer.next = null;
+            buffer.current = segment;
+            buffer.day = day;
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, Day day) {
+        prefetchExecutor.execute(() -> {
+            try {
+                Segment segment = lease(buffer.keyPrefix, day);
+                synchronized (buffer) {
+                    if (buffer.day == day && buffer.next == null) {
+                        buffer.next = segment;
+                    }
+                }
+            } catch (Exception e) {
+                // 预取失败时,当前号段用完后会同步租用
+                log.error("预取号段失败, keyPrefix: {}", buffer.keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    /**
+     * 租用一个号段 incrby icr:{keyPrefix}:{date} step, 得到 [end - step + 1, end]
+     */
+    private Segment lease(String keyPrefix, Day day) {
+        Long end = stringRedisTemplate.opsForValue().increment(day.counterKey, segmentStep);
+        long min = end - segmentStep + 1;
+        return new Segment(day, min, end, min + (long) (segmentStep * prefetchRatio));
+    }
+
+    /**
+     * 单个业务前缀的双缓冲: current正在分配, next为预取好的下一个号段
+     */
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        private final AtomicBoolean loading = new AtomicBoolean();
+        private volatile Day day;
+        private volatile Segment current;
+        private volatile Segment next;
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    private static class Segment {
+        private final Day day;
+        private final AtomicLong cursor;
+        private final long min;
+        private final long max;
+        private final long prefetchAt;
+
+        Segment(Day day, long min, long max, long prefetchAt) {
+            this.day = day;
+            this.cursor = new AtomicLong(min);
+            this.min = min;
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    /**
+     * 缓存当天的计数器key、结束时间和时区偏移,每天只计算一次
+     */
+    private static class Day {
+        private final String counterKey;
+        private final long endMillis;
+        private final long offsetSeconds;
+
+        private Day(String counterKey, long endMillis, long offsetSeconds) {
+            this.counterKey = counterKey;
+            this.endMillis = endMillis;
+            this.offsetSeconds = offsetSeconds;
+        }
+
+        static Day of(String keyPrefix, long nowMillis) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = LocalDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), zone).toLocalDate();
+            long endMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            long offsetSeconds = zone.getRules().getOffset(Instant.ofEpochMilli(nowMillis)).getTotalSeconds();
+            return new Day("icr:" + keyPrefix + ":" + date.format(DATE_FORMATTER), endMillis, offsetSeconds);
+        }
     }
 }
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.SecureUtil;
+
+/**
+ * 秒杀券已购用户的存储方式
+ * set: 用户id存入set,精确,每个用户占用几十字节
+ * bitmap: 以用户id为偏移量的位图,精确,内存只取决于最大的用户id (最大用户id / 8 字节)
+ * bloom: 布隆过滤器,内存只取决于库存和误判率,误判的用户会被当作重复下单拒绝
+ */
+public class SeckillDedupe {
+
+    public static final String SET = "set";
+    public static final String BITMAP = "bitmap";
+    public static final String BLOOM = "bloom";
+
+    public static boolean isValid(String mode) {
+        return SET.equals(mode) || BITMAP.equals(mode) || BLOOM.equals(mode);
+    }
+
+    /**
+     * 布隆过滤器的位数 m = -n * ln(p) / (ln2)^2
+     * @param n 预计插入的元素个数
+     * @param fpp 误判率
+     */
+    public static long bloomBits(long n, double fpp) {
+        return (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    }
+
+    /**
+     * 布隆过滤器的哈希函数个数 k = m / n * ln2
+     */
+    public static int bloomHashes(long n, long bits) {
+        return Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+    }
+
+    /**
+     * 用户在布隆过滤器中的k个位置,与seckill.lua中的算法一致
+     * 对userId做sha1,取前两段作为两个基础哈希,第i个位置为 (h1 + i * h2) % bits
+     */
+    public static long[] bloomOffsets(String userId, long bits, int hashes) {
+        String sha = SecureUtil.sha1(userId);
+        long h1 = Long.parseLong(sha.substring(0, 8), 16);
+        long h2 = Long.parseLong(sha.substring(8, 16), 16);
+        long[] offsets = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = (h1 + i * h2) % bits;
+        }
+        return offsets;
+    }
+}
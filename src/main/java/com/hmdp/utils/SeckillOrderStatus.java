@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单的处理状态 seckill:order:status:{orderId}
+ * hash结构, status字段为订单状态, userId字段为下单用户
+ * lua脚本扣减库存成功时写入QUEUED,消费者落库后改为PERSISTED,重复订单或重试耗尽时改为FAILED
+ * 客户端轮询订单结果只读这条记录,不访问数据库,也可以通过 SeckillResultNotifier 订阅结果推送
+ */
+@Component
+public class SeckillOrderStatus {
+
+    // 已进入消息队列,等待落库
+    public static final String QUEUED = "QUEUED";
+    // 已落库,下单成功
+    public static final String PERSISTED = "PERSISTED";
+    // 下单失败
+    public static final String FAILED = "FAILED";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 订单有了最终结果后,状态记录保留的时间(秒)
+    @Value("${seckill.order.status.final-ttl-seconds:300}")
+    private long finalTtlSeconds;
+
+    /**
+     * 记录订单的最终结果,一次pipeline写入全部订单并发布结果通知
+     * 同时写回userId,QUEUED记录已过期或死信重放后也能校验订单归属
+     * @param persisted 已落库的订单
+     * @param failed 下单失败的订单
+     */
+    public void finish(Collection<VoucherOrder> persisted, Collection<VoucherOrder> failed) {
+        if (persisted.isEmpty() && failed.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder order : persisted) {
+                finish(conn, order, PERSISTED);
+            }
+            for (VoucherOrder order : failed) {
+                finish(conn, order, FAILED);
+            }
+            return null;
+        });
+    }
+
+    private void finish(StringRedisConnection conn, VoucherOrder order, String status) {
+        String key = SECKILL_ORDER_STATUS_KEY + order.getId();
+        Map<String, String> values = new HashMap<>(2);
+        values.put("status", status);
+        values.put("userId", order.getUserId().toString());
+        conn.hMSet(key, values);
+        conn.expire(key, finalTtlSeconds);
+        // 通知订阅了该订单的SSE连接,连接可能在其他实例上
+        conn.publish(SeckillResultNotifier.RESULT_CHANNEL, order.getId() + ":" + status);
+    }
+
+    /**
+     * 查询订单状态
+     * @param orderId 订单id
+     * @return status和userId字段,记录不存在或已过期时为空map
+     */
+    public Map<Object, Object> get(Long orderId) {
+        return stringRedisTemplate.opsForHash().entries(SECKILL_ORDER_STATUS_KEY + orderId);
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+
+/**
+ * 秒杀订单消息队列的分区
+ * 不分区时所有订单写入 stream.orders
+ * 分区时按 voucherId % 分区数 写入 stream.orders.{p},不同优惠券的订单可以并行落库,同一优惠券的订单始终在同一个分区
+ * seckill.lua 使用相同的规则计算分区
+ */
+@Component
+public class SeckillOrderStreams {
+
+    // 订单消息队列的分区数,1代表不分区
+    @Value("${seckill.order.partitions:1}")
+    private int partitions;
+
+    public int partitions() {
+        return Math.max(partitions, 1);
+    }
+
+    /**
+     * 优惠券订单所在的消息队列
+     * @param voucherId 优惠券id
+     * @return stream.orders 或 stream.orders.{p}
+     */
+    public String keyOf(Long voucherId) {
+        return keyOfPartition((int) (voucherId % partitions()));
+    }
+
+    /**
+     * 第p个分区的消息队列
+     */
+    public String keyOfPartition(int p) {
+        return partitions() > 1 ? SECKILL_ORDER_STREAM + "." + p : SECKILL_ORDER_STREAM;
+    }
+
+    /**
+     * 开启分区之前使用的消息队列 stream.orders
+     * 分区后不再写入,但可能还有未消费或未确认的消息,需要继续消费直到消费完
+     * @return 不分区时返回null
+     */
+    public String legacyKey() {
+        return partitions() > 1 ? SECKILL_ORDER_STREAM : null;
+    }
+
+    /**
+     * 全部分区的消息队列
+     */
+    public List<String> keys() {
+        if (partitions() == 1) {
+            return Collections.singletonList(SECKILL_ORDER_STREAM);
+        }
+        List<String> keys = new ArrayList<>(partitions());
+        for (int p = 0; p < partitions(); p++) {
+            keys.add(keyOfPartition(p));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * 秒杀隐藏路径拦截器
+ * 在限流和秒杀业务之前校验路径,没有有效路径的请求直接返回,不访问Redis
+ */
+public class SeckillPathInterceptor implements HandlerInterceptor {
+
+    private static final String INVALID_RESULT = JSONUtil.toJsonStr(Result.fail("秒杀路径无效,请刷新后重试"));
+
+    private final SeckillPathSigner seckillPathSigner;
+
+    public SeckillPathInterceptor(SeckillPathSigner seckillPathSigner) {
+        this.seckillPathSigner = seckillPathSigner;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!seckillPathSigner.isEnabled()) {
+            return true;
+        }
+
+        // 1. 获取路径中的优惠券id和秒杀路径
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (pathVariables == null || pathVariables.get("id") == null) {
+            return true;
+        }
+
+        // 2. 校验秒杀路径,登录拦截器已经保证用户存在. 优惠券id不是数字时按无效路径处理
+        String id = pathVariables.get("id");
+        if (NumberUtil.isLong(id)
+                && seckillPathSigner.verify(Long.valueOf(id), UserHolder.getUser().getId(), pathVariables.get("path"))) {
+            return true;
+        }
+
+        // 3. 路径无效,直接返回
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(INVALID_RESULT);
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀隐藏路径
+ * 秒杀开始后才为用户签发路径 {过期时间}-{HMAC-SHA256(voucherId:userId:过期时间)},秒杀接口必须携带有效路径
+ * 校验只做一次HMAC计算,不访问Redis,开抢前的刷接口请求只消耗CPU
+ */
+@Component
+@Slf4j
+public class SeckillPathSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 是否开启隐藏路径,开启后秒杀接口必须携带有效路径
+    @Value("${seckill.path.enabled:false}")
+    private boolean enabled;
+
+    // 签名密钥,多实例部署时必须配置成相同的值
+    @Value("${seckill.path.secret:}")
+    private String secret;
+
+    // 路径的有效期(秒)
+    @Value("${seckill.path.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    // 本地缓存的秒杀开始时间多久重新从Redis加载一次(毫秒)
+    @Value("${seckill.path.begin-cache-ms:60000}")
+    private long beginCacheMs;
+
+    // Mac不是线程安全的,每个线程一个实例
+    private ThreadLocal<Mac> macHolder;
+
+    // voucherId -> {秒杀开始时间, 加载时间},只缓存最近访问的秒杀券
+    private final LRUCache<Long, long[]> beginTimes = CacheUtil.newLRUCache(1024);
+
+    @PostConstruct
+    private void init() {
+        if (StrUtil.isBlank(secret)) {
+            // 没有配置密钥时使用随机密钥,只适用于单实例部署
+            secret = UUID.randomUUID().toString(true);
+            if (enabled) {
+                log.warn("未配置seckill.path.secret,使用随机密钥,多实例部署时其他实例签发的路径将校验失败");
+            }
+        }
+        byte[] key = secret.getBytes(StandardCharsets.UTF_8);
+        macHolder = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(new SecretKeySpec(key, ALGORITHM));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 签发秒杀路径
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 秒杀路径,秒杀尚未开始时返回null
+     */
+    public String issue(Long voucherId, Long userId) {
+        long now = System.currentTimeMillis();
+        if (now < beginTime(voucherId, now)) {
+            return null;
+        }
+        long expireAt = now + ttlSeconds * 1000;
+        return expireAt + "-" + sign(voucherId, userId, expireAt);
+    }
+
+    /**
+     * 校验秒杀路径,纯内存计算
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @param path 秒杀路径
+     * @return true 代表路径有效
+     */
+    public boolean verify(Long voucherId, Long userId, String path) {
+        if (path == null) {
+            return false;
+        }
+        // 1. 解析并判断是否过期
+        int index = path.indexOf('-');
+        if (index <= 0) {
+            return false;
+        }
+        long expireAt;
+        try {
+            expireAt = Long.parseLong(path.substring(0, index));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            return false;
+        }
+
+        // 2. 重新计算签名,用常量时间比较避免通过响应时间猜出签名
+        byte[] expected = sign(voucherId, userId, expireAt).getBytes(StandardCharsets.UTF_8);
+        byte[] actual = path.substring(index + 1).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private String sign(Long voucherId, Long userId, long expireAt) {
+        byte[] data = (voucherId + ":" + userId + ":" + expireAt).getBytes(StandardCharsets.UTF_8);
+        return HexUtil.encodeHexStr(macHolder.get().doFinal(data));
+    }
+
+    /**
+     * 秒杀开始时间,本地缓存,过期后重新从 seckill:voucher:{voucherId} 加载
+     * 没有记录开始时间的秒杀券视为已经开始,由lua脚本判断
+     */
+    private long beginTime(Long voucherId, long now) {
+        long[] cached = beginTimes.get(voucherId);
+        if (cached != null && now - cached[1] < beginCacheMs) {
+            return cached[0];
+        }
+        Object begin = stringRedisTemplate.opsForHash().get(SECKILL_VOUCHER_KEY + voucherId, "begin");
+        long beginTime = begin == null ? 0 : Long.parseLong(begin.toString());
+        beginTimes.put(voucherId, new long[]{beginTime, now});
+        return beginTime;
+    }
+}
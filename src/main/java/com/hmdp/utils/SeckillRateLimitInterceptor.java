@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * 秒杀接口限流拦截器
+ * 超出速率的请求直接返回"繁忙,请重试",不进入秒杀业务,不占用Redis
+ */
+public class SeckillRateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String INVALID_ID_RESULT = JSONUtil.toJsonStr(Result.fail("优惠券id无效"));
+
+    private static final String BUSY_RESULT = JSONUtil.toJsonStr(Result.fail("抢购人数过多,请稍后重试"));
+
+    private final SeckillRateLimiter seckillRateLimiter;
+
+    public SeckillRateLimitInterceptor(SeckillRateLimiter seckillRateLimiter) {
+        this.seckillRateLimiter = seckillRateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1. 获取路径中的优惠券id
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (pathVariables == null || pathVariables.get("id") == null) {
+            return true;
+        }
+
+        // 2. 优惠券id不是数字,直接返回
+        String id = pathVariables.get("id");
+        if (!NumberUtil.isLong(id)) {
+            return reject(response, INVALID_ID_RESULT);
+        }
+
+        // 3. 获取令牌成功则放行
+        if (seckillRateLimiter.tryAcquire(Long.valueOf(id))) {
+            return true;
+        }
+
+        // 4. 获取令牌失败,直接返回
+        return reject(response, BUSY_RESULT);
+    }
+
+    private boolean reject(HttpServletResponse response, String result) throws Exception {
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(result);
+        return false;
+    }
+}
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_BUCKET_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_KEY;
+
+/**
+ * 秒杀接口限流
+ * 先过每个实例的本地令牌桶,再过可选的每个秒杀券的全局令牌桶(Redis + lua)
+ * 每个秒杀券的速率保存在 seckill:limit:{voucherId} 中(localRate/globalRate字段),没有配置时使用默认值
+ */
+@Component
+public class SeckillRateLimiter {
+
+    private static final DefaultRedisScript<Long> LIMIT_SCRIPT;
+    static {
+        LIMIT_SCRIPT = new DefaultRedisScript<>();
+        LIMIT_SCRIPT.setLocation(new ClassPathResource("seckill_limit.lua"));
+        LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 每个实例每秒放行的请求数,0代表不限流. 默认不限流,需要按实例的实际承载能力配置或通过运维接口逐个秒杀券设置
+    @Value("${seckill.limit.local-rate:0}")
+    private int defaultLocalRate;
+
+    // 整个集群每秒放行的请求数,0代表不限流
+    @Value("${seckill.limit.global-rate:0}")
+    private int defaultGlobalRate;
+
+    // 多久重新从Redis加载一次秒杀券的限流配置(毫秒)
+    @Value("${seckill.limit.refresh-ms:10000}")
+    private long refreshMs;
+
+    // 只缓存最近访问的秒杀券,不存在的优惠券id不会让缓存无限增长
+    private final LRUCache<Long, VoucherLimit> limits = CacheUtil.newLRUCache(1024);
+
+    /**
+     * 尝试获取秒杀券的访问令牌
+     * @param voucherId 优惠券id
+     * @return true 代表放行
+     */
+    public boolean tryAcquire(Long voucherId) {
+        VoucherLimit limit = limits.get(voucherId);
+        if (limit == null || limit.needRefresh()) {
+            limit = refresh(voucherId, limit);
+        }
+
+        // 1. 本地令牌桶,纯内存操作
+        if (limit.localBucket != null && !limit.localBucket.tryAcquire()) {
+            return false;
+        }
+
+        // 2. 全局令牌桶,桶容量为1秒的令牌数
+        if (limit.globalRate > 0) {
+            Long allowed = stringRedisTemplate.execute(LIMIT_SCRIPT,
+                    Collections.singletonList(SECKILL_LIMIT_BUCKET_KEY + voucherId),
+                    String.valueOf(limit.globalRate), String.valueOf(limit.globalRate),
+                    String.valueOf(System.currentTimeMillis()));
+            return Long.valueOf(1).equals(allowed);
+        }
+        return true;
+    }
+
+    /**
+     * 设置秒杀券的限流速率,各实例在下次刷新时生效
+     * @param voucherId 优惠券id
+     * @param localRate 每个实例每秒放行的请求数
+     * @param globalRate 整个集群每秒放行的请求数
+     */
+    public void setRate(Long voucherId, int localRate, int globalRate) {
+        Map<String, String> rate = new HashMap<>(2);
+        rate.put("localRate", String.valueOf(localRate));
+        rate.put("globalRate", String.valueOf(globalRate));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_LIMIT_KEY + voucherId, rate);
+        limits.remove(voucherId);
+    }
+
+    private VoucherLimit refresh(Long voucherId, VoucherLimit old) {
+        Map<Object, Object> rate;
+        try {
+            rate = stringRedisTemplate.opsForHash().entries(SECKILL_LIMIT_KEY + voucherId);
+        } catch (RuntimeException e) {
+            // 刷新失败时继续使用旧的配置,下一个请求再尝试刷新
+            if (old == null) {
+                throw e;
+            }
+            old.refreshing.set(false);
+            return old;
+        }
+        int localRate = rate.containsKey("localRate") ? Integer.parseInt(rate.get("localRate").toString()) : defaultLocalRate;
+        int globalRate = rate.containsKey("globalRate") ? Integer.parseInt(rate.get("globalRate").toString()) : defaultGlobalRate;
+
+        // 速率没有变化时沿用原来的本地令牌桶,不重置桶中的令牌
+        TokenBucket localBucket = null;
+        if (localRate > 0) {
+            localBucket = old != null && old.localRate == localRate ? old.localBucket : new TokenBucket(localRate, localRate);
+        }
+        VoucherLimit limit = new VoucherLimit(localRate, localBucket, globalRate, System.currentTimeMillis() + refreshMs);
+        limits.put(voucherId, limit);
+        return limit;
+    }
+
+    private static class VoucherLimit {
+        private final int localRate;
+        private final TokenBucket localBucket;
+        private final int globalRate;
+        private final long expireTime;
+        // 保证过期后只有一个线程去Redis刷新,其他线程继续使用旧的配置
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        VoucherLimit(int localRate, TokenBucket localBucket, int globalRate, long expireTime) {
+            this.localRate = localRate;
+            this.localBucket = localBucket;
+            this.globalRate = globalRate;
+            this.expireTime = expireTime;
+        }
+
+        boolean needRefresh() {
+            return System.currentTimeMillis() >= expireTime && refreshing.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀结果推送
+ * 客户端通过SSE订阅自己的订单,消费者落库或拒绝订单后推送一次结果,不再需要轮询
+ * 消费者和SSE连接可能不在同一个实例上,结果通过Redis发布订阅 seckill:order-result 广播给所有实例
+ */
+@Component
+@Slf4j
+public class SeckillResultNotifier implements MessageListener {
+
+    // 消息内容为 orderId:status
+    public static final String RESULT_CHANNEL = "seckill:order-result";
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    // SSE连接的超时时间(毫秒),超时后客户端可以重新订阅或改为查询状态接口
+    @Value("${seckill.order.sse-timeout-ms:30000}")
+    private long sseTimeoutMs;
+
+    // orderId -> 本实例上订阅该订单的连接
+    private final Map<Long, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RESULT_CHANNEL));
+    }
+
+    /**
+     * 订阅订单结果
+     * 先登记连接再查询当前状态,订阅前已经有结果或查询期间产生结果都不会漏推
+     * @param orderId 订单id
+     * @param userId 当前用户id,只能订阅自己的订单
+     * @return SSE连接,推送一次 result 事件后关闭
+     */
+    public SseEmitter subscribe(Long orderId, Long userId) {
+        // 1. 登记连接,连接结束时移除
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        subscribers.computeIfAbsent(orderId, k -> ConcurrentHashMap.newKeySet()).add(emitter);
+        emitter.onCompletion(() -> unregister(orderId, emitter));
+        emitter.onTimeout(() -> unregister(orderId, emitter));
+
+        // 2. 查询当前状态,只能订阅自己的订单
+        Map<Object, Object> status = seckillOrderStatus.get(orderId);
+        if (status.isEmpty() || !userId.toString().equals(status.get("userId"))) {
+            push(orderId, emitter, Result.fail("订单不存在或已过期"));
+            return emitter;
+        }
+
+        // 3. 已经有最终结果直接推送,否则等待消费者的通知
+        Object current = status.get("status");
+        if (!SeckillOrderStatus.QUEUED.equals(current)) {
+            push(orderId, emitter, Result.ok(current));
+        }
+        return emitter;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(':');
+        Long orderId = Long.valueOf(body.substring(0, index));
+        Set<SseEmitter> emitters = subscribers.get(orderId);
+        if (emitters == null) {
+            return;
+        }
+        Result result = Result.ok(body.substring(index + 1));
+        for (SseEmitter emitter : emitters) {
+            push(orderId, emitter, result);
+        }
+    }
+
+    /**
+     * 推送结果并关闭连接
+     * 订阅时的查询和Redis通知可能同时到达,只有先从登记表中移除连接的一方负责推送
+     */
+    private void push(Long orderId, SseEmitter emitter, Result result) {
+        if (!unregister(orderId, emitter)) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event().name("result").data(result));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            log.debug("推送订单{}结果失败: {}", orderId, e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    private boolean unregister(Long orderId, SseEmitter emitter) {
+        boolean[] removed = new boolean[1];
+        subscribers.computeIfPresent(orderId, (k, emitters) -> {
+            removed[0] = emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+        return removed[0];
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地售罄标记
+ * 秒杀券售罄后,后续请求直接在JVM内拒绝,不再生成订单id、不再执行lua脚本
+ * 售罄和补库存通过Redis发布订阅同步给其他实例
+ */
+@Component
+@Slf4j
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    private static final String SOLD_OUT_CHANNEL = "seckill:sold-out";
+    private static final String RESTOCK_CHANNEL = "seckill:restock";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 售罄标记超过这个时间后放行一个请求去Redis复查,兜底没有经过本系统的补库存(毫秒)
+    @Value("${seckill.sold-out.recheck-ms:5000}")
+    private long recheckMs;
+
+    // voucherId -> 标记售罄(或上次复查)的时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this,
+                Arrays.asList(new ChannelTopic(SOLD_OUT_CHANNEL), new ChannelTopic(RESTOCK_CHANNEL)));
+    }
+
+    /**
+     * 判断秒杀券是否已售罄
+     * 复查时间到了之后只有一个线程能拿到复查机会,其他线程仍按售罄处理
+     * @param voucherId 优惠券id
+     * @return true 代表已售罄,可以直接拒绝
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long markTime = soldOut.get(voucherId);
+        if (markTime == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - markTime < recheckMs) {
+            return true;
+        }
+        return !soldOut.replace(voucherId, markTime, now);
+    }
+
+    /**
+     * 标记售罄,首次标记时通知其他实例
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.put(voucherId, System.currentTimeMillis()) == null) {
+            stringRedisTemplate.convertAndSend(SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 补充库存后清除售罄标记,并通知其他实例
+     * @param voucherId 优惠券id
+     */
+    public void restock(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOut.putIfAbsent(voucherId, System.currentTimeMillis());
+        } else {
+            soldOut.remove(voucherId);
+        }
+        log.debug("秒杀券{}售罄状态变更: {}", voucherId, channel);
+    }
+}
@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_LEASE_KEY;
+import static com.hmdp.utils.RedisConstants.ID_WORKER_TS_KEY;
+
+/**
+ * 本地生成的雪花id: 1位符号位 + 1位标记位(固定为1) + 40位毫秒时间戳 + 10位workerId + 12位毫秒内序列号
+ * 标记位保证雪花id始终大于 RedisIdWorker 生成的id (秒级时间戳 << 32,2056年之前小于 2^62),
+ * 同一业务从Redis自增切换到雪花算法(或切换回去)后,新id不会与已有的id重复. 40位毫秒时间戳可以使用到2056年
+ * workerId 从Redis租用 (id:worker:{workerId}),后台线程定期续期,租约有效期内Redis短暂不可用也能继续生成;
+ * 租约过期或被其他实例租走后停止续期,下一次生成时重新租用,本地时间戳只增不减,重新租用后生成的id仍然递增
+ * 时间戳和序列号打包在一个AtomicLong中,每次生成只是一次CAS:
+ * 1. 同一毫秒内序列号自增,用完后借用下一毫秒
+ * 2. 时钟回拨不超过 max-backward-ms 时等待时钟追上,超过时继续借用上次的时间戳,生成的id始终递增
+ * 每个workerId最后使用的时间戳记录在Redis中,下一个租用该workerId的实例从这个时间之后开始生成
+ */
+@Component
+@Slf4j
+public class SnowflakeIdWorker {
+
+    /**
+     * 开始时间戳: 代表2022年1月1日0时0分0秒(毫秒)
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200000L;
+
+    private static final int WORKER_ID_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final int TIMESTAMP_BITS = 40;
+    private static final long FLAG = 1L << (TIMESTAMP_BITS + WORKER_ID_BITS + SEQUENCE_BITS);
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("snowflake_worker_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // workerId租约的有效期(毫秒),每 1/3 有效期续期一次
+    @Value("${id.snowflake.lease-ttl-ms:30000}")
+    private long leaseTtlMs;
+
+    // 时钟回拨不超过这个时间(毫秒)时等待,超过时借用上次的时间戳
+    @Value("${id.snowflake.max-backward-ms:5}")
+    private long maxBackwardMs;
+
+    // 区分租约持有者的实例标识
+    private final String owner = UUID.randomUUID().toString();
+
+    // (时间戳 - BEGIN_TIMESTAMP) << SEQUENCE_BITS | 序列号
+    private final AtomicLong state = new AtomicLong();
+
+    private volatile long workerId = -1;
+
+    // 上一次租用的workerId,重新租用时优先尝试
+    private long lastWorkerId = -1;
+
+    // 租约的本地过期时间,续期成功后推后,超过后停止生成
+    private volatile long leaseDeadline;
+
+    private ScheduledExecutorService heartbeat;
+
+    /**
+     * @return 生成的id
+     */
+    public long nextId() {
+        long workerId = this.workerId;
+        if (workerId < 0 || System.currentTimeMillis() > leaseDeadline) {
+            workerId = lease();
+        }
+
+        while (true) {
+            long current = state.get();
+            long now = System.currentTimeMillis() - BEGIN_TIMESTAMP;
+            long last = current >>> SEQUENCE_BITS;
+            // 1. 小幅时钟回拨,等待时钟追上
+            if (now < last && last - now <= maxBackwardMs) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(last - now));
+                continue;
+            }
+            // 2. 新的一毫秒从序列号0开始,否则在上一个id的基础上加1(序列号用完或时钟大幅回拨时借用后面的时间戳)
+            long next = Math.max(now << SEQUENCE_BITS, current + 1);
+            if (state.compareAndSet(current, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                if (timestamp >>> TIMESTAMP_BITS != 0) {
+                    throw new IllegalStateException("雪花id的时间戳已超出" + TIMESTAMP_BITS + "位");
+                }
+                long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+                return FLAG | timestamp << (WORKER_ID_BITS + SEQUENCE_BITS) | workerId << SEQUENCE_BITS | sequence;
+            }
+        }
+    }
+
+    /**
+     * 首次使用或租约失效时租用workerId: 从原来的workerId(首次使用时从随机位置)开始依次尝试,
+     * 直到租到没有被其他实例持有的workerId. Redis不可用时抛出异常,Redis恢复后的下一次调用再重新租用
+     */
+    private synchronized long lease() {
+        long previous = workerId;
+        if (previous >= 0 && System.currentTimeMillis() <= leaseDeadline) {
+            return previous;
+        }
+        if (previous >= 0) {
+            // 租约已过期,停止原来的续期任务
+            abandon(previous);
+        }
+        long start = lastWorkerId >= 0 ? lastWorkerId : RandomUtil.randomLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long candidate = (start + i) & MAX_WORKER_ID;
+            long leasedAt = System.currentTimeMillis();
+            Long lastUsed = renew(candidate, 0);
+            if (lastUsed == null || lastUsed < 0) {
+                continue;
+            }
+            // 从该workerId最后使用的时间之后开始生成,避免与上一个持有者重复; 本地时间戳不回退,避免与本实例之前的id重复
+            long begin = Math.max(lastUsed - BEGIN_TIMESTAMP + 1, 0) << SEQUENCE_BITS;
+            state.accumulateAndGet(begin, Math::max);
+            leaseDeadline = leasedAt + leaseTtlMs;
+            workerId = candidate;
+            lastWorkerId = candidate;
+            startHeartbeat(candidate);
+            log.info("租用workerId: {}", candidate);
+            return candidate;
+        }
+        throw new IllegalStateException("没有可用的workerId");
+    }
+
+    /**
+     * 放弃租约: 停止续期,下一次生成时重新租用
+     */
+    private synchronized void abandon(long lostWorkerId) {
+        if (workerId != lostWorkerId) {
+            return;
+        }
+        workerId = -1;
+        leaseDeadline = 0;
+        heartbeat.shutdown();
+    }
+
+    private void startHeartbeat(long leasedWorkerId) {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snowflake-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = leaseTtlMs / 3;
+        heartbeat.scheduleWithFixedDelay(() -> {
+            try {
+                long renewedAt = System.currentTimeMillis();
+                Long result = renew(leasedWorkerId, lastTimestamp());
+                if (result == null || result < 0) {
+                    // 租约已过期并被其他实例租走,停止续期,下一次生成时重新租用
+                    log.error("workerId {} 的租约已被其他实例持有,重新租用", leasedWorkerId);
+                    abandon(leasedWorkerId);
+                    return;
+                }
+                if (workerId == leasedWorkerId) {
+                    leaseDeadline = renewedAt + leaseTtlMs;
+                }
+            } catch (Exception e) {
+                // Redis暂时不可用,租约有效期内继续生成
+                log.warn("workerId {} 续期失败: {}", leasedWorkerId, e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private Long renew(long workerId, long lastTimestamp) {
+        return stringRedisTemplate.execute(LEASE_SCRIPT,
+                Arrays.asList(ID_WORKER_LEASE_KEY + workerId, ID_WORKER_TS_KEY),
+                owner, String.valueOf(leaseTtlMs), String.valueOf(workerId), String.valueOf(lastTimestamp));
+    }
+
+    private long lastTimestamp() {
+        return (state.get() >>> SEQUENCE_BITS) + BEGIN_TIMESTAMP;
+    }
+
+    /**
+     * 停机时记录最后使用的时间戳并释放租约
+     */
+    @PreDestroy
+    private synchronized void release() {
+        if (workerId < 0) {
+            return;
+        }
+        heartbeat.shutdownNow();
+        try {
+            Long result = renew(workerId, lastTimestamp());
+            if (result != null && result >= 0) {
+                stringRedisTemplate.delete(ID_WORKER_LEASE_KEY + workerId);
+            }
+        } catch (Exception e) {
+            log.warn("释放workerId {} 失败: {}", workerId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地令牌桶(GCRA算法实现)
+ * 只记录下一个令牌的理论到达时间,获取令牌是一次CAS,无锁、无对象分配
+ */
+public class TokenBucket {
+
+    // 每个令牌的间隔(纳秒)
+    private final long intervalNanos;
+
+    // 允许的突发量对应的时间(纳秒)
+    private final long burstNanos;
+
+    // 理论到达时间
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param permitsPerSecond 每秒生成的令牌数
+     * @param burst 桶容量,最多允许的突发请求数
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = intervalNanos * Math.max(burst, 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 尝试获取一个令牌,不等待
+     * @return true 代表获取成功
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrival.get();
+            long newTat = Math.max(tat, now) + intervalNanos;
+            // 桶中的令牌已经用完
+            if (newTat - now > burstNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, newTat)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.hmdp.utils.lock;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 两级锁: 先获取本地锁,再获取Redis锁
+ * 同一实例内竞争同一把锁的线程先在本地锁上排队或直接失败,只有拿到本地锁的线程才去竞争Redis锁,
+ * 热点key上的Redis锁请求从每个线程一次降为每个实例大约一次
+ * 本地锁按锁名称一一对应,不同名称之间互不影响; 没有线程持有或等待时按引用计数从本地移除,不会随名称数量无限增长
+ * 本地锁是不区分线程的许可,每个HybridLock对象代表一次获取,不可重入;
+ * 只要被包装的分布式锁允许,可以在其他线程中释放(例如获取锁后把缓存重建交给线程池)
+ */
+public class HybridLock implements ILock {
+
+    // 锁名称 -> 本地锁,引用计数为0时移除
+    private static final Map<String, LocalLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    // 锁名称
+    private final String name;
+
+    // 实际的分布式锁
+    private final ILock delegate;
+
+    // 在本地锁上等待的时间(毫秒), 0代表获取不到立即失败
+    private final long localWaitMs;
+
+    // 当前对象是否持有本地锁
+    private final AtomicBoolean localHeld = new AtomicBoolean();
+
+    public HybridLock(String name, ILock delegate, long localWaitMs) {
+        this.name = name;
+        this.delegate = delegate;
+        this.localWaitMs = localWaitMs;
+    }
+
+    /**
+     * 基于 SimpleRedisLock 的两级锁,本地获取不到立即失败
+     * @param name 锁的名称,与 SimpleRedisLock 相同,Redis中的key为 lock:{name}
+     */
+    public HybridLock(String name, StringRedisTemplate stringRedisTemplate) {
+        this(name, new SimpleRedisLock(name, stringRedisTemplate), 0);
+    }
+
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        if (!tryLockLocal()) {
+            return false;
+        }
+        boolean success = false;
+        try {
+            success = delegate.tryLock(timeoutSec);
+            return success;
+        } finally {
+            // Redis锁获取失败时释放本地锁,让本实例的下一个线程去竞争
+            if (!success) {
+                unlockLocal();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!tryLockLocal()) {
+            return false;
+        }
+        boolean success = false;
+        try {
+            success = delegate.tryLock();
+            return success;
+        } finally {
+            if (!success) {
+                unlockLocal();
+            }
+        }
+    }
+
+    @Override
+    public long fencingToken() {
+        return delegate.fencingToken();
+    }
+
+    @Override
+    public void unlock() {
+        // 先释放Redis锁,再释放本地锁
+        try {
+            delegate.unlock();
+        } finally {
+            unlockLocal();
+        }
+    }
+
+    private boolean tryLockLocal() {
+        if (localHeld.get()) {
+            throw new IllegalStateException("HybridLock不可重入: " + name);
+        }
+        LocalLock local = retain(name);
+        boolean acquired = false;
+        try {
+            acquired = localWaitMs <= 0
+                    ? local.permit.tryAcquire()
+                    : local.permit.tryAcquire(localWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!acquired) {
+                release(name);
+            }
+        }
+        if (acquired) {
+            localHeld.set(true);
+        }
+        return acquired;
+    }
+
+    private void unlockLocal() {
+        if (!localHeld.compareAndSet(true, false)) {
+            return;
+        }
+        LocalLock local = LOCAL_LOCKS.get(name);
+        local.permit.release();
+        release(name);
+    }
+
+    /**
+     * 引用计数加1,没有本地锁时创建
+     */
+    private static LocalLock retain(String name) {
+        return LOCAL_LOCKS.compute(name, (k, local) -> {
+            if (local == null) {
+                local = new LocalLock();
+            }
+            local.refs++;
+            return local;
+        });
+    }
+
+    /**
+     * 引用计数减1,没有线程持有或等待时移除本地锁
+     */
+    private static void release(String name) {
+        LOCAL_LOCKS.computeIfPresent(name, (k, local) -> --local.refs == 0 ? null : local);
+    }
+
+    private static class LocalLock {
+        private final Semaphore permit = new Semaphore(1);
+        // 持有或正在等待该锁的次数,只在 LOCAL_LOCKS 的compute中修改
+        private int refs;
+    }
+}
@@ -8,6 +8,19 @@ public interface ILock {
      */
     boolean tryLock(long timeoutSec);
 
+    /**
+     * 尝试获取锁,由看门狗定期续期,直到释放锁或进程退出
+     * @return true 代表获取锁成功
+     */
+    boolean tryLock();
+
+    /**
+     * 当前线程持有锁时的fencing token,同一把锁每次被重新获取时单调递增
+     * 写入外部存储时携带token,存储端拒绝比已见过的token更小的写入,锁过期后旧持有者的写入不会生效
+     * @return fencing token, 当前线程未持有锁时返回-1
+     */
+    long fencingToken();
+
     /**
      * 释放锁
      */
@@ -1,36 +1,76 @@
 package com.hmdp.utils.lock;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 基于Redis hash的可重入分布式锁
+ * 1. 锁的key为hash, field为持有者标识(uuid + 线程id), value为重入次数,获取、释放都是一次lua脚本往返
+ * 2. 持有者标识在每次调用时按当前线程计算,同一个锁对象可以在多个线程之间共享
+ * 3. tryLock() 获取的锁由进程内共享的看门狗定期续期,临界区执行时间超过有效期也不会丢锁
+ * 4. 每次首次获取锁时分配单调递增的fencing token
+ * 5. 本地记录每个锁的过期时间,过期后不再返回fencing token; 没有看门狗的锁过期后由看门狗线程清除本地记录
+ */
+@Slf4j
 public class SimpleRedisLock implements ILock {
 
     private StringRedisTemplate stringRedisTemplate;
 
     // key = keyPrefix + name, 完整的分布式锁的key值
     private String lockKey;
+    // fencing token计数器的key,不设置过期时间,保证token单调递增
+    private String fenceKey;
     // 分布式锁的名称,与具体业务需求有关
     private String name;
     // 分布式锁前缀
     private static final String keyPrefix = "lock:";
 
-    // 每个线程的唯一标识
-    private String threadUUID;
     // 每个线程的唯一标识的前缀
     private static final String idPrefix = UUID.randomUUID().toString() + "-";
 
+    // 看门狗模式下锁的有效期(毫秒),每 1/3 有效期续期一次
+    private static final long WATCHDOG_TTL_MS = 30000L;
+
     // 提前将lua脚本加载为RedisScript,不然每次都加在会有很多io操作消耗资源
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
     static {
         // 类加载时将lua脚本加载进来
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
         UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    // 本进程持有的锁: lockKey + 线程标识 -> 持有信息,看门狗只续期这里面的锁
+    private static final Map<String, Hold> HOLDS = new ConcurrentHashMap<>();
+
+    // 所有锁共享一个看门狗线程
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        WATCHDOG.scheduleWithFixedDelay(SimpleRedisLock::renewAll,
+                WATCHDOG_TTL_MS / 3, WATCHDOG_TTL_MS / 3, TimeUnit.MILLISECONDS);
     }
 
     public SimpleRedisLock(String _name, StringRedisTemplate _stringRedisTemplate) {
@@ -40,21 +80,120 @@ public class SimpleRedisLock implements ILock {
 
         // 初始化当前分布式锁的key
         this.lockKey = keyPrefix + name;
-
-        // 初始化当前线程的唯一标识
-        this.threadUUID = idPrefix + Thread.currentThread().getId();
+        this.fenceKey = lockKey + ":fence";
     }
 
     @Override
     public boolean tryLock(long timeoutSec) {
-        // 获取锁
-        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, threadUUID, timeoutSec, TimeUnit.SECONDS);
-        return Boolean.TRUE.equals(success);
+        return acquire(TimeUnit.SECONDS.toMillis(timeoutSec), false);
+    }
+
+    @Override
+    public boolean tryLock() {
+        return acquire(WATCHDOG_TTL_MS, true);
+    }
+
+    @Override
+    public long fencingToken() {
+        Hold hold = HOLDS.get(lockKey + "@" + threadId());
+        // 锁在Redis中可能已经过期并被其他线程获取,过期后的token不能再使用
+        return hold == null || System.currentTimeMillis() > hold.expiresAt ? -1 : hold.token;
     }
 
     @Override
     public void unlock() {
-        // 调用 lua 脚本
-        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(lockKey), threadUUID);
+        // 调用 lua 脚本,重入次数减到0才真正释放
+        String threadId = threadId();
+        String holdKey = lockKey + "@" + threadId;
+        Hold hold = HOLDS.get(holdKey);
+        long ttlMs = hold == null ? WATCHDOG_TTL_MS : hold.ttlMs;
+        Long remaining = stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(lockKey),
+                threadId, String.valueOf(ttlMs));
+        if (remaining == null || remaining <= 0) {
+            HOLDS.remove(holdKey);
+        }
+        if (remaining != null && remaining < 0) {
+            log.warn("释放锁{}时锁已不属于当前线程,可能已过期", lockKey);
+        }
+    }
+
+    private boolean acquire(long ttlMs, boolean watchdog) {
+        // 获取锁,成功时返回fencing token
+        String threadId = threadId();
+        long acquiredAt = System.currentTimeMillis();
+        Long token = stringRedisTemplate.execute(LOCK_SCRIPT, Arrays.asList(lockKey, fenceKey),
+                threadId, String.valueOf(ttlMs));
+        if (token == null || token < 0) {
+            return false;
+        }
+
+        // 记录持有信息,重入时沿用首次获取时的记录,token变化说明之前的锁已过期,这是一次新的获取
+        String holdKey = lockKey + "@" + threadId;
+        Hold hold = HOLDS.get(holdKey);
+        if (hold == null || hold.token != token) {
+            hold = new Hold(stringRedisTemplate, lockKey, threadId, token);
+            HOLDS.put(holdKey, hold);
+        }
+        if (watchdog) {
+            hold.watchdog = true;
+        }
+        hold.ttlMs = hold.watchdog ? WATCHDOG_TTL_MS : ttlMs;
+        // 重入时脚本已刷新有效期,按本次获取的时间计算过期时间
+        hold.expiresAt = acquiredAt + ttlMs;
+        return true;
+    }
+
+    /**
+     * 当前线程的唯一标识,每次调用时计算,锁对象可以在线程之间共享
+     */
+    private static String threadId() {
+        return idPrefix + Thread.currentThread().getId();
+    }
+
+    /**
+     * 看门狗: 续期所有需要续期的锁,锁已不属于持有者时不再续期
+     * 没有看门狗的锁过期后持有者可能不再调用unlock,在这里清除本地记录
+     */
+    private static void renewAll() {
+        HOLDS.forEach((holdKey, hold) -> {
+            long now = System.currentTimeMillis();
+            if (!hold.watchdog) {
+                if (now > hold.expiresAt) {
+                    HOLDS.remove(holdKey, hold);
+                }
+                return;
+            }
+            try {
+                Long renewed = hold.stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(hold.lockKey),
+                        hold.threadId, String.valueOf(WATCHDOG_TTL_MS));
+                if (renewed == null || renewed == 0) {
+                    HOLDS.remove(holdKey, hold);
+                    log.warn("锁{}已不属于当前持有者,停止续期", hold.lockKey);
+                    return;
+                }
+                hold.expiresAt = now + WATCHDOG_TTL_MS;
+            } catch (Exception e) {
+                // Redis暂时不可用,下次继续续期
+                log.warn("锁{}续期失败: {}", hold.lockKey, e.getMessage());
+            }
+        });
+    }
+
+    private static class Hold {
+        private final StringRedisTemplate stringRedisTemplate;
+        private final String lockKey;
+        private final String threadId;
+        private final long token;
+        private volatile boolean watchdog;
+        private volatile long ttlMs;
+        // 本地估计的过期时间,以发送获取或续期命令之前的时间计算,不会晚于Redis中的实际过期时间
+        private volatile long expiresAt;
+
+        Hold(StringRedisTemplate stringRedisTemplate, String lockKey, String threadId, long token) {
+            this.stringRedisTemplate = stringRedisTemplate;
+            this.lockKey = lockKey;
+            this.threadId = threadId;
+            this.token = token;
+        }
     }
 }
@@ -0,0 +1,17 @@
+-- KEYS[1] 是锁的key(hash, field为持有者标识, value为重入次数)  KEYS[2] 是锁的fencing token计数器
+-- ARGV[1] 是当前线程的唯一标识(基于uuid和线程id生成)  ARGV[2] 是锁的有效期(毫秒)
+-- 获取成功返回fencing token, 锁被其他线程持有返回-1
+if (redis.call('exists', KEYS[1]) == 0) then
+    -- 锁不存在,首次获取时分配新的fencing token,同一把锁的token单调递增
+    local token = redis.call('incr', KEYS[2])
+    redis.call('hset', KEYS[1], ARGV[1], 1, 'fence', token)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return token
+end
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    -- 当前线程已持有锁,重入次数加1,沿用首次获取时的fencing token
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return tonumber(redis.call('hget', KEYS[1], 'fence'))
+end
+return -1
@@ -0,0 +1,7 @@
+-- KEYS[1] 是锁的key  ARGV[1] 是当前线程的唯一标识  ARGV[2] 是锁的有效期(毫秒)
+-- 仍由当前线程持有时续期并返回1, 否则返回0
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
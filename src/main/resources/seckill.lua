@@ -1,37 +1,163 @@
+-- KEYS[1] 库存key seckill:stock:{voucherId}
 -- 1.1 订单id
 local voucherId = ARGV[1]
 -- 1.2 用户id
 local userId = ARGV[2]
--- 1.3 订单id
-local orderId = ARGV[3]
+-- 1.3 订单id的时间戳部分(已左移32位,十进制字符串)
+local timestampBits = ARGV[3]
+-- 1.4 订单序列号的key icr:order:yyyy:MM:dd
+local counterKey = ARGV[4]
+-- 1.5 当前时间(毫秒)
+local now = tonumber(ARGV[5])
+-- 1.6 订单状态记录的过期时间(秒)
+local statusTtl = ARGV[6]
+-- 1.7 排队放行时发放的购买令牌,没有开启排队时为空字符串
+local token = ARGV[7]
+-- 1.8 订单消息队列的分区数,大于1时按 voucherId % 分区数 写入 stream.orders.{p}
+local partitions = tonumber(ARGV[8])
+-- 1.9 预先生成的订单id(雪花算法),为空字符串时由脚本自增序列号拼接
+local presetOrderId = ARGV[9]
+-- 1.10 为'1'时布隆过滤器命中也放行: 调用方已在数据库确认用户没有订单,命中属于误判
+local recheck = ARGV[10] == '1'
+
+-- lua的数字是double,无法精确表示64位的订单id,用十进制字符串做加法拼接 timestampBits + seq
+local function addToDecimal(decimal, n)
+    local digits = {}
+    local carry = n
+    for i = #decimal, 1, -1 do
+        local d = tonumber(string.sub(decimal, i, i)) + carry
+        digits[i] = d % 10
+        carry = math.floor(d / 10)
+    end
+    local result = table.concat(digits)
+    while (carry > 0) do
+        result = (carry % 10) .. result
+        carry = math.floor(carry / 10)
+    end
+    return result
+end
+
+-- 布隆过滤器的k个位置: 对userId做sha1,取前两段作为两个基础哈希,第i个位置为 (h1 + i * h2) % bits
+-- 与 SeckillDedupe.bloomOffsets 的算法保持一致
+local function bloomOffsets(bits, hashes)
+    local sha = redis.sha1hex(userId)
+    local h1 = tonumber(string.sub(sha, 1, 8), 16)
+    local h2 = tonumber(string.sub(sha, 9, 16), 16)
+    local offsets = {}
+    for i = 0, hashes - 1 do
+        offsets[i + 1] = (h1 + i * h2) % bits
+    end
+    return offsets
+end
 
 -- 2. 构造key
 -- 2.1 库存key
-local stockKey = 'seckill:stock:' .. voucherId
+local stockKey = KEYS[1]
 -- 2.2 订单key (存储所有购买该商品的用户id List)
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.3 秒杀信息key (hash, begin/end字段为秒杀开始/结束时间, dedupe字段为已购用户的存储方式,
+--     waitingRoom字段为排队模式每秒放行的人数)
+local voucherKey = 'seckill:voucher:' .. voucherId
 
 -- 3. 业务逻辑
+-- 3.0 判断秒杀时间窗口,没有记录时间的秒杀券不做判断
+local seckillInfo = redis.call('hmget', voucherKey, 'begin', 'end', 'dedupe', 'bloomBits', 'bloomHashes', 'waitingRoom')
+if (seckillInfo[1] and now < tonumber(seckillInfo[1])) then
+    -- 秒杀尚未开始,返回3
+    return {3}
+end
+if (seckillInfo[2] and now > tonumber(seckillInfo[2])) then
+    -- 秒杀已经结束,返回4
+    return {4}
+end
+
+-- 3.0.1 开启排队时,只有持有一次性购买令牌的用户才能继续
+local tokenKey
+if (seckillInfo[6]) then
+    tokenKey = 'seckill:token:' .. voucherId .. ':' .. userId
+    if (redis.call('get', tokenKey) ~= token) then
+        -- 令牌不存在或不匹配,返回5
+        return {5}
+    end
+end
+
 -- 3.1 判断库存是否充足
-if (tonumber(redis.call('get', stockKey)) < 0) then
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
     -- 库存不足,没资格购买,返回1
-    return 1
+    return {1}
 end
 
 -- 3.2 判断用户是否下单
-if (redis.call('sismember', orderKey, userId) == 1) then
+-- set: seckill:order:{voucherId} 存储用户id (默认)
+-- bitmap: seckill:order:bits:{voucherId} 以用户id为偏移量
+-- bloom: seckill:order:bloom:{voucherId} 布隆过滤器,命中只代表"可能已购买",返回6由调用方查询数据库确认;
+--        确认后带recheck重新调用时放行,消息带上recheck标记,消费者落库失败时归还库存
+local dedupe = seckillInfo[3]
+local bloom
+if (dedupe == 'bitmap') then
+    orderKey = 'seckill:order:bits:' .. voucherId
+    if (redis.call('getbit', orderKey, userId) == 1) then
+        -- 用户已购买该商品,没资格购买,返回2
+        return {2}
+    end
+elseif (dedupe == 'bloom') then
+    orderKey = 'seckill:order:bloom:' .. voucherId
+    bloom = bloomOffsets(tonumber(seckillInfo[4]), tonumber(seckillInfo[5]))
+    local seen = true
+    for i = 1, #bloom do
+        if (redis.call('getbit', orderKey, bloom[i]) == 0) then
+            seen = false
+            break
+        end
+    end
+    if (seen and not recheck) then
+        -- 用户可能已购买该商品,需要调用方确认,返回6
+        return {6}
+    end
+elseif (redis.call('sismember', orderKey, userId) == 1) then
     -- 用户已购买该商品,没资格购买,返回2
-    return 2
+    return {2}
 end
 
 -- 3.3 扣减库存
 redis.call('incrby', stockKey, -1)
 
 -- 3.4 创建订单
-redis.call('sadd', orderKey, userId)
+if (dedupe == 'bitmap') then
+    redis.call('setbit', orderKey, userId, 1)
+elseif (dedupe == 'bloom') then
+    for i = 1, #bloom do
+        redis.call('setbit', orderKey, bloom[i], 1)
+    end
+else
+    redis.call('sadd', orderKey, userId)
+end
+-- 令牌只能使用一次
+if (tokenKey) then
+    redis.call('del', tokenKey)
+end
+
+-- 3.5 有购买资格才分配订单序列号,被拒绝的请求不消耗序列号
+local orderId = presetOrderId
+if (orderId == '') then
+    orderId = addToDecimal(timestampBits, redis.call('incr', counterKey))
+end
 
--- 4. 发送消息到消息队列
+-- 4. 发送消息到消息队列,同一优惠券的订单始终在同一个分区
 -- xadd stream.orders * k1 v1 k2 v2
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+local streamKey = 'stream.orders'
+if (partitions > 1) then
+    streamKey = 'stream.orders.' .. (tonumber(voucherId) % partitions)
+end
+if (bloom and recheck) then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId, 'recheck', '1')
+else
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
+
+-- 5. 记录订单状态为排队中,消费者落库后更新为最终结果
+local statusKey = 'seckill:order:status:' .. orderId
+redis.call('hmset', statusKey, 'status', 'QUEUED', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
 
-return 0
\ No newline at end of file
+return {0, orderId}
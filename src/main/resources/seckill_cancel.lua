@@ -0,0 +1,31 @@
+-- 1.1 优惠券id
+local voucherId = ARGV[1]
+-- ARGV[2..n] 被取消的订单,依次为 订单id, 用户id
+-- 1.2 归还标记的过期时间(秒),需要大于取消订单的重试窗口
+local markerTtl = ARGV[2]
+
+-- 2. 构造key
+-- 2.1 库存key
+local stockKey = 'seckill:stock:' .. voucherId
+-- 2.2 已购用户的存储方式
+local dedupe = redis.call('hget', 'seckill:voucher:' .. voucherId, 'dedupe')
+
+local returned = 0
+for i = 3, #ARGV, 2 do
+    local orderId = ARGV[i]
+    local userId = ARGV[i + 1]
+    -- 3. 每个订单只归还一次库存,重试时不会多还
+    if (redis.call('set', 'seckill:order:restocked:' .. orderId, '1', 'nx', 'ex', markerTtl)) then
+        redis.call('incrby', stockKey, 1)
+        -- 3.1 用户移出已购集合,可以再次购买. 布隆过滤器无法删除元素,再次购买时由数据库确认没有有效订单
+        if (dedupe == 'bitmap') then
+            redis.call('setbit', 'seckill:order:bits:' .. voucherId, userId, 0)
+        elseif (dedupe ~= 'bloom') then
+            redis.call('srem', 'seckill:order:' .. voucherId, userId)
+        end
+        returned = returned + 1
+    end
+end
+
+-- 4. 返回归还的库存数
+return returned
@@ -0,0 +1,22 @@
+-- KEYS[1] 是令牌桶的key  ARGV[1] 每秒生成的令牌数  ARGV[2] 桶容量  ARGV[3] 当前时间(毫秒)
+local rate = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[2])
+local now = tonumber(ARGV[3])
+
+-- 1. 按上次请求到现在的时间补充令牌
+local bucket = redis.call('hmget', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or capacity
+local ts = tonumber(bucket[2]) or now
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+
+-- 2. 尝试取出一个令牌
+local allowed = 0
+if (tokens >= 1) then
+    tokens = tokens - 1
+    allowed = 1
+end
+
+-- 3. 保存令牌桶,桶满之后就可以过期
+redis.call('hmset', KEYS[1], 'tokens', tokens, 'ts', now)
+redis.call('pexpire', KEYS[1], math.ceil(capacity / rate * 1000) + 1000)
+return allowed
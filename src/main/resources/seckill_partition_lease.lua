@@ -0,0 +1,12 @@
+-- KEYS[1] 分区租约的key seckill:partition:owner:{streamKey}  ARGV[1] 消费者名称  ARGV[2] 租约有效期(毫秒)
+-- 已由当前消费者持有时续期,没有持有者时获取,返回1; 由其他消费者持有时返回0
+local owner = redis.call('get', KEYS[1])
+if (owner == ARGV[1]) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+if (not owner) then
+    redis.call('set', KEYS[1], ARGV[1], 'px', ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,6 @@
+-- KEYS[1] 分区租约的key seckill:partition:owner:{streamKey}  ARGV[1] 消费者名称
+-- 只释放当前消费者持有的租约
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -0,0 +1,40 @@
+-- KEYS[1] 是排队队列的zset(score为进入时间)  KEYS[2] 是秒杀信息的hash
+-- ARGV[1] 优惠券id  ARGV[2] 当前时间(毫秒)  ARGV[3] 本轮令牌的随机盐  ARGV[4] 令牌有效期(秒)  ARGV[5] 每轮最多放行的人数
+-- 返回本轮放行的人数, -1 代表排队已关闭或秒杀已结束
+local now = tonumber(ARGV[2])
+local info = redis.call('hmget', KEYS[2], 'waitingRoom', 'begin', 'end', 'admitTs')
+local rate = tonumber(info[1])
+if (rate == nil or rate <= 0 or (info[3] and now > tonumber(info[3]))) then
+    return -1
+end
+if (info[2] and now < tonumber(info[2])) then
+    -- 秒杀尚未开始,只排队不放行
+    return 0
+end
+
+-- 1. 按上次放行到现在的时间计算本轮可放行的人数,空闲时最多累积1秒的额度
+-- 放行进度记录在Redis中,多个实例同时调度时总速率不变
+local ts = math.max(tonumber(info[4]) or 0, now - 1000)
+local allowed = math.min(math.floor((now - ts) * rate / 1000), tonumber(ARGV[5]))
+if (allowed <= 0) then
+    return 0
+end
+
+-- 2. 按进入队列的先后顺序放行 zpopmin返回 {member1, score1, member2, score2 ...}
+local popped = redis.call('zpopmin', KEYS[1], allowed)
+local admitted = #popped / 2
+
+-- 3. 发放一次性购买令牌 seckill:token:{voucherId}:{userId}
+for i = 1, #popped, 2 do
+    local userId = popped[i]
+    redis.call('set', 'seckill:token:' .. ARGV[1] .. ':' .. userId, redis.sha1hex(ARGV[3] .. userId), 'EX', ARGV[4])
+end
+
+-- 4. 记录放行进度,队列已空时不累积放行额度
+if (admitted < allowed) then
+    ts = now
+else
+    ts = ts + admitted * 1000 / rate
+end
+redis.call('hset', KEYS[2], 'admitTs', ts)
+return admitted
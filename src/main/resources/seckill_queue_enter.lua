@@ -0,0 +1,16 @@
+-- KEYS[1] 是排队队列的zset(score为进入时间)  KEYS[2] 是用户的购买令牌key  KEYS[3] 是秒杀信息的hash
+-- ARGV[1] 用户id  ARGV[2] 当前时间(毫秒)
+-- 返回 {-1} 未开启排队, {0, 令牌} 已放行, {1, 排队位置}
+if (not redis.call('hget', KEYS[3], 'waitingRoom')) then
+    return {-1}
+end
+
+-- 1. 已经放行的用户直接返回令牌
+local token = redis.call('get', KEYS[2])
+if (token) then
+    return {0, token}
+end
+
+-- 2. 进入队列,重复进入不改变排队顺序
+redis.call('zadd', KEYS[1], 'NX', ARGV[2], ARGV[1])
+return {1, redis.call('zrank', KEYS[1], ARGV[1]) + 1}
@@ -0,0 +1,10 @@
+-- KEYS[1] 是待支付订单的zset(score为支付截止时间)  ARGV[1] 当前时间(毫秒)  ARGV[2] 最多取出的订单数
+-- ARGV[3] 处理超时时间(毫秒)
+-- 取出已到期的订单,并把它们的score推迟到 当前时间 + 处理超时时间,而不是直接删除:
+-- 多个实例同时扫描时每个订单只会被一个实例取到; 处理成功后由调用方zrem,处理中途宕机时超时后会被重新取出
+local orderIds = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'limit', 0, tonumber(ARGV[2]))
+local retryAt = tonumber(ARGV[1]) + tonumber(ARGV[3])
+for i = 1, #orderIds do
+    redis.call('zadd', KEYS[1], retryAt, orderIds[i])
+end
+return orderIds
@@ -0,0 +1,17 @@
+-- KEYS[1] 是workerId的租约key  KEYS[2] 是记录各workerId最后使用时间的hash
+-- ARGV[1] 实例标识  ARGV[2] 租约有效期(毫秒)  ARGV[3] workerId  ARGV[4] 本实例最后使用的时间戳(毫秒)
+-- 租约被其他实例持有返回-1, 否则获取或续期租约,返回该workerId历史上最后使用的时间戳
+local owner = redis.call('get', KEYS[1])
+if (owner and owner ~= ARGV[1]) then
+    return -1
+end
+redis.call('set', KEYS[1], ARGV[1], 'px', ARGV[2])
+
+-- 记录最后使用的时间戳只增不减,下一个租用该workerId的实例从这个时间之后开始生成
+local last = tonumber(redis.call('hget', KEYS[2], ARGV[3]) or '0')
+local ts = tonumber(ARGV[4])
+if (ts > last) then
+    redis.call('hset', KEYS[2], ARGV[3], ARGV[4])
+    return ts
+end
+return last
@@ -1,7 +1,13 @@
--- KEYS[1] 是锁的key  ARGV[1] 是当前线程的唯一标识(基于uuid和线程id生成)
--- 比较线程标识与锁中的标识是否一致
-if (redis.call('get', KEYS[1]) == ARGV[1]) then
-    -- 释放锁
-    return redis.call('del', KEYS[1])
+-- KEYS[1] 是锁的key  ARGV[1] 是当前线程的唯一标识(基于uuid和线程id生成)  ARGV[2] 是锁的有效期(毫秒)
+-- 比较线程标识与锁中的标识是否一致,不是当前线程持有的锁返回-1
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then
+    return -1
 end
-return 0
\ No newline at end of file
+-- 重入次数减1,减到0才释放锁,否则刷新有效期
+local count = redis.call('hincrby', KEYS[1], ARGV[1], -1)
+if (count > 0) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return count
+end
+redis.call('del', KEYS[1])
+return 0
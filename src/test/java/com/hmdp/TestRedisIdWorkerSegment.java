@@ -0,0 +1,131 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 号段模式的id生成,不依赖Redis,incrby由内存中的计数器代替
+ * 1. 多线程并发时,跨越多个号段的id不重复,每个线程拿到的id单调递增
+ * 2. 跨天时丢弃旧号段,改用新一天的计数器,id继续递增
+ */
+public class TestRedisIdWorkerSegment {
+
+    private static final int STEP = 10;
+    private static final int THREADS = 32;
+    private static final int IDS_PER_THREAD = 5000;
+
+    // 计数器key -> 当前值
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    @Test
+    void uniqueAndMonotonicAcrossSegments() throws Exception {
+        RedisIdWorker worker = newWorker(System::currentTimeMillis);
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(es.submit(() -> {
+                start.await();
+                long[] ids = new long[IDS_PER_THREAD];
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    ids[i] = worker.nextId("order");
+                }
+                return ids;
+            }));
+        }
+        start.countDown();
+
+        Set<Long> all = ConcurrentHashMap.newKeySet();
+        for (Future<long[]> future : futures) {
+            long[] ids = future.get();
+            for (int i = 0; i < ids.length; i++) {
+                assertTrue(all.add(ids[i]), "id重复: " + ids[i]);
+                if (i > 0) {
+                    assertTrue(ids[i] > ids[i - 1], "同一线程的id没有递增");
+                }
+            }
+        }
+        es.shutdown();
+        assertEquals(THREADS * IDS_PER_THREAD, all.size());
+        // 号段大小远小于id总数,分配过程跨越了很多个号段
+        long leased = counters.values().stream().mapToLong(AtomicLong::get).sum();
+        assertTrue(leased >= THREADS * IDS_PER_THREAD);
+        assertTrue(leased / STEP > 1000);
+    }
+
+    @Test
+    void switchesCounterAtMidnight() {
+        ZoneId zone = ZoneId.systemDefault();
+        long midnight = LocalDate.now(zone).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        AtomicLong now = new AtomicLong(midnight - 1000);
+        RedisIdWorker worker = newWorker(now::get);
+
+        // 1. 前一天用掉几个号段
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < STEP * 3 + 5; i++) {
+            ids.add(worker.nextId("order"));
+        }
+        assertEquals(1, counters.size());
+
+        // 2. 跨天后改用新一天的计数器,序列号从新计数器的第一个号段开始
+        now.set(midnight + 1000);
+        long first = worker.nextId("order");
+        ids.add(first);
+        for (int i = 0; i < STEP * 2; i++) {
+            ids.add(worker.nextId("order"));
+        }
+        assertEquals(2, counters.size());
+        assertEquals(1, first & 0xFFFFFFFFL);
+
+        // 3. 跨天前后的id不重复且递增
+        List<Long> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        assertEquals(ids, sorted);
+        assertEquals(ids.size(), ids.stream().distinct().count());
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisIdWorker newWorker(LongSupplier clock) {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(ops.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            String key = invocation.getArgument(0);
+            long delta = invocation.getArgument(1);
+            return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta);
+        });
+
+        RedisIdWorker worker = new RedisIdWorker();
+        ReflectionTestUtils.setField(worker, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(worker, "segmentEnabled", true);
+        ReflectionTestUtils.setField(worker, "segmentStep", STEP);
+        ReflectionTestUtils.setField(worker, "prefetchRatio", 0.8);
+        ReflectionTestUtils.setField(worker, "snowflakePrefixes", Collections.emptySet());
+        ReflectionTestUtils.setField(worker, "clock", clock);
+        return worker;
+    }
+}
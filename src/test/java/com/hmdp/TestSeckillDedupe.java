@@ -0,0 +1,153 @@
+package com.hmdp;
+
+import com.hmdp.utils.SeckillDedupe;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 已购用户的存储方式
+ * 1. SeckillDedupe.bloomOffsets 与 seckill.lua 的算法一致,期望值按lua的方式计算(double运算)
+ * 2. bitmap 模式下同一用户第二次下单被 seckill.lua 拒绝, bloom 模式下返回6由调用方确认
+ * 3. 布隆过滤器误判时,确认后带recheck重新执行可以下单,消息带上recheck标记
+ *    需要本地Redis,使用单独的15号库,连接不上时跳过: -Dredis.host=127.0.0.1 -Dredis.port=6379
+ */
+public class TestSeckillDedupe {
+
+    private static final long VOUCHER_ID = 999_998L;
+    private static final long USER_ID = 1010L;
+    private static final long OTHER_USER_ID = 1011L;
+    private static final String ORDER_ID = "1";
+
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+    }
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    @BeforeAll
+    static void connect() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        config.setDatabase(15);
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void close() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void bloomOffsetsMatchLua() {
+        // sha1("1010") = 1966e694 bad90686..., bits = 287552, hashes = 10
+        assertArrayEquals(new long[]{22036, 202842, 96096, 276902, 170156, 63410, 244216, 137470, 30724, 211530},
+                SeckillDedupe.bloomOffsets("1010", 287552, 10));
+        // sha1("1000000") = b2758582 8a675f5a...
+        assertArrayEquals(new long[]{54914, 102940, 150966, 198992, 247018, 7492, 55518, 103544, 151570, 199596},
+                SeckillDedupe.bloomOffsets("1000000", 287552, 10));
+    }
+
+    @Test
+    void bitmapRejectsSecondPurchase() {
+        assertSecondPurchaseRejected(Collections.singletonMap("dedupe", SeckillDedupe.BITMAP), 2L);
+    }
+
+    @Test
+    void bloomAsksToConfirmSecondPurchase() {
+        assertSecondPurchaseRejected(bloomInfo("287552", "10"), 6L);
+    }
+
+    @Test
+    void bloomCollisionPassesAfterRecheck() {
+        assumeTrue(redisAvailable(), "Redis不可用,跳过");
+        // 只有1位的布隆过滤器,第一个用户购买后所有用户都会命中
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + VOUCHER_ID, "10");
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + VOUCHER_ID, bloomInfo("1", "1"));
+        assertEquals(0L, seckill(USER_ID, false).get(0));
+
+        // 1. 另一个用户被误判为可能已购买,不扣减库存
+        assertEquals(6L, seckill(OTHER_USER_ID, false).get(0));
+        assertEquals("9", stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + VOUCHER_ID));
+
+        // 2. 调用方确认没有订单后重新执行,可以下单,消息带上recheck标记
+        assertEquals(0L, seckill(OTHER_USER_ID, true).get(0));
+        assertEquals("8", stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + VOUCHER_ID));
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_STREAM, Range.unbounded());
+        assertEquals(2, records.size());
+        assertNull(records.get(0).getValue().get("recheck"));
+        assertEquals("1", records.get(1).getValue().get("recheck"));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        if (redisAvailable()) {
+            stringRedisTemplate.delete(Arrays.asList(
+                    SECKILL_STOCK_KEY + VOUCHER_ID, SECKILL_VOUCHER_KEY + VOUCHER_ID,
+                    SECKILL_ORDER_KEY + "bits:" + VOUCHER_ID, SECKILL_ORDER_KEY + "bloom:" + VOUCHER_ID,
+                    SECKILL_ORDER_STATUS_KEY + ORDER_ID, SECKILL_ORDER_STREAM));
+        }
+    }
+
+    private void assertSecondPurchaseRejected(Map<String, String> seckillInfo, long expectedCode) {
+        assumeTrue(redisAvailable(), "Redis不可用,跳过");
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + VOUCHER_ID, "10");
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + VOUCHER_ID, seckillInfo);
+
+        assertEquals(0L, seckill(USER_ID, false).get(0));
+        assertEquals(expectedCode, seckill(USER_ID, false).get(0));
+        // 第二次被拒绝,不扣减库存
+        assertEquals("9", stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + VOUCHER_ID));
+    }
+
+    private static Map<String, String> bloomInfo(String bits, String hashes) {
+        Map<String, String> seckillInfo = new HashMap<>();
+        seckillInfo.put("dedupe", SeckillDedupe.BLOOM);
+        seckillInfo.put("bloomBits", bits);
+        seckillInfo.put("bloomHashes", hashes);
+        return seckillInfo;
+    }
+
+    private List<?> seckill(long userId, boolean recheck) {
+        return stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.singletonList(SECKILL_STOCK_KEY + VOUCHER_ID),
+                String.valueOf(VOUCHER_ID), String.valueOf(userId), "0", "test:counter",
+                String.valueOf(System.currentTimeMillis()), "60", "", "1", ORDER_ID, recheck ? "1" : "0");
+    }
+
+    private static boolean redisAvailable() {
+        try {
+            stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + VOUCHER_ID);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp;
+
+import com.hmdp.utils.SeckillPathSigner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 秒杀隐藏路径的签发和校验,不依赖Redis,秒杀开始时间由模拟实现代替
+ */
+public class TestSeckillPathSigner {
+
+    private static final long VOUCHER_ID = 10L;
+    private static final long USER_ID = 1010L;
+    private static final long OTHER_USER_ID = 1011L;
+
+    private HashOperations<String, Object, Object> hashOps;
+    private SeckillPathSigner signer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        hashOps = mock(HashOperations.class);
+        when(template.<Object, Object>opsForHash()).thenReturn(hashOps);
+
+        signer = new SeckillPathSigner();
+        ReflectionTestUtils.setField(signer, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(signer, "enabled", true);
+        ReflectionTestUtils.setField(signer, "secret", "test-secret");
+        ReflectionTestUtils.setField(signer, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(signer, "beginCacheMs", 60000L);
+        ReflectionTestUtils.invokeMethod(signer, "init");
+    }
+
+    @Test
+    void issuedPathVerifies() {
+        String path = signer.issue(VOUCHER_ID, USER_ID);
+        assertNotNull(path);
+        assertTrue(signer.verify(VOUCHER_ID, USER_ID, path));
+    }
+
+    @Test
+    void notIssuedBeforeBegin() {
+        when(hashOps.get(SECKILL_VOUCHER_KEY + VOUCHER_ID, "begin"))
+                .thenReturn(String.valueOf(System.currentTimeMillis() + 60000));
+        assertNull(signer.issue(VOUCHER_ID, USER_ID));
+    }
+
+    @Test
+    void expiredPathRejected() {
+        // 签名正确,但已经过期
+        long expireAt = System.currentTimeMillis() - 1;
+        String signature = ReflectionTestUtils.invokeMethod(signer, "sign", VOUCHER_ID, USER_ID, expireAt);
+        assertFalse(signer.verify(VOUCHER_ID, USER_ID, expireAt + "-" + signature));
+    }
+
+    @Test
+    void tamperedPathRejected() {
+        String path = signer.issue(VOUCHER_ID, USER_ID);
+        int index = path.indexOf('-');
+        long expireAt = Long.parseLong(path.substring(0, index));
+        String signature = path.substring(index + 1);
+
+        // 1. 延长过期时间,沿用原来的签名
+        assertFalse(signer.verify(VOUCHER_ID, USER_ID, (expireAt + 3600_000) + "-" + signature));
+        // 2. 修改签名的一个字符
+        char last = signature.charAt(signature.length() - 1);
+        String flipped = signature.substring(0, signature.length() - 1) + (last == '0' ? '1' : '0');
+        assertFalse(signer.verify(VOUCHER_ID, USER_ID, expireAt + "-" + flipped));
+        // 3. 格式错误
+        assertFalse(signer.verify(VOUCHER_ID, USER_ID, signature));
+        assertFalse(signer.verify(VOUCHER_ID, USER_ID, "abc-" + signature));
+        assertFalse(signer.verify(VOUCHER_ID, USER_ID, null));
+    }
+
+    @Test
+    void pathOfAnotherUserOrVoucherRejected() {
+        String path = signer.issue(VOUCHER_ID, OTHER_USER_ID);
+        assertTrue(signer.verify(VOUCHER_ID, OTHER_USER_ID, path));
+        assertFalse(signer.verify(VOUCHER_ID, USER_ID, path));
+        assertFalse(signer.verify(VOUCHER_ID + 1, OTHER_USER_ID, path));
+    }
+}
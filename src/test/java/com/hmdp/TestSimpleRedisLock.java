@@ -0,0 +1,38 @@
+package com.hmdp;
+
+import com.hmdp.utils.lock.SimpleRedisLock;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 没有看门狗的锁过期后不再返回fencing token,不依赖Redis,加锁脚本由模拟实现代替
+ */
+public class TestSimpleRedisLock {
+
+    @Test
+    void fencingTokenExpiresWithLock() throws InterruptedException {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        doReturn(7L).when(template).execute(any(RedisScript.class), anyList(), any(), any());
+        SimpleRedisLock lock = new SimpleRedisLock("test-expire", template);
+
+        // 1. 有效期内可以取得token
+        assertTrue(lock.tryLock(1));
+        assertEquals(7L, lock.fencingToken());
+
+        // 2. 锁在Redis中过期后,即使没有调用unlock,也不再返回旧的token
+        Thread.sleep(1100);
+        assertEquals(-1L, lock.fencingToken());
+
+        // 3. 重新获取后恢复
+        assertTrue(lock.tryLock(1));
+        assertEquals(7L, lock.fencingToken());
+    }
+}
@@ -0,0 +1,103 @@
+package com.hmdp;
+
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_LEASE_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * workerId租约丢失或过期后重新租用,不依赖Redis,租约脚本由内存中的模拟实现代替
+ */
+public class TestSnowflakeIdWorker {
+
+    private static final long LEASE_TTL_MS = 300;
+
+    // 被其他实例抢走的workerId,续期和租用都返回-1
+    private final Set<Long> stolen = ConcurrentHashMap.newKeySet();
+
+    // 每个workerId最后使用的时间戳
+    private final Map<Long, Long> lastUsed = new ConcurrentHashMap<>();
+
+    private volatile boolean redisDown;
+
+    @Test
+    void releaseAfterLeaseStolen() throws InterruptedException {
+        SnowflakeIdWorker worker = newWorker();
+        long first = worker.nextId();
+        long firstWorkerId = workerIdOf(first);
+
+        // 1. 租约被其他实例持有,心跳发现后放弃租约
+        stolen.add(firstWorkerId);
+        waitUntilAbandoned(worker);
+
+        // 2. 下一次生成时重新租用其他workerId,id继续递增
+        long second = worker.nextId();
+        assertNotEquals(firstWorkerId, workerIdOf(second));
+        assertTrue(second > first);
+        assertTrue(worker.nextId() > second);
+    }
+
+    @Test
+    void releaseAfterRedisOutageLongerThanLease() throws InterruptedException {
+        SnowflakeIdWorker worker = newWorker();
+        long first = worker.nextId();
+
+        // 1. Redis不可用超过租约有效期,无法生成
+        redisDown = true;
+        Thread.sleep(LEASE_TTL_MS * 2);
+        assertThrows(IllegalStateException.class, worker::nextId);
+
+        // 2. Redis恢复后重新租用原来的workerId
+        redisDown = false;
+        long second = worker.nextId();
+        assertEquals(workerIdOf(first), workerIdOf(second));
+        assertTrue(second > first);
+    }
+
+    private SnowflakeIdWorker newWorker() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        doAnswer(invocation -> {
+            if (redisDown) {
+                throw new IllegalStateException("Redis不可用");
+            }
+            List<String> keys = invocation.getArgument(1);
+            long workerId = Long.parseLong(keys.get(0).substring(ID_WORKER_LEASE_KEY.length()));
+            if (stolen.contains(workerId)) {
+                return -1L;
+            }
+            long ts = Long.parseLong(invocation.getArgument(5));
+            return lastUsed.merge(workerId, ts, Math::max);
+        }).when(template).execute(any(RedisScript.class), anyList(), any(), any(), any(), any());
+
+        SnowflakeIdWorker worker = new SnowflakeIdWorker();
+        ReflectionTestUtils.setField(worker, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(worker, "leaseTtlMs", LEASE_TTL_MS);
+        ReflectionTestUtils.setField(worker, "maxBackwardMs", 5L);
+        return worker;
+    }
+
+    private void waitUntilAbandoned(SnowflakeIdWorker worker) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LEASE_TTL_MS * 5;
+        while ((long) ReflectionTestUtils.getField(worker, "workerId") >= 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "心跳没有放弃被抢走的租约");
+            Thread.sleep(10);
+        }
+    }
+
+    private static long workerIdOf(long id) {
+        return (id >>> 12) & 1023;
+    }
+}
@@ -0,0 +1,56 @@
+package com.hmdp;
+
+import com.hmdp.utils.TokenBucket;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestTokenBucket {
+
+    @Test
+    void burstThenReject() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refillAfterInterval() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(20);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void concurrentAcquireNeverExceedsBurst() throws InterruptedException {
+        // 速率很低,测试期间几乎不会补充令牌
+        TokenBucket bucket = new TokenBucket(0.01, 100);
+        AtomicInteger acquired = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(16);
+        CountDownLatch latch = new CountDownLatch(16);
+        for (int i = 0; i < 16; i++) {
+            es.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        es.shutdown();
+        assertEquals(100, acquired.get());
+    }
+}